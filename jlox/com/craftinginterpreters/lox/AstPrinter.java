@@ -30,6 +30,12 @@ class AstPrinter implements Expr.Visitor<String>,
     return print(stmt.expression);
   }
 
+  @Override
+  public String visitForInStmt(Stmt.ForIn stmt) {
+    return parenthesize("for " + stmt.name.lexeme + " in " +
+                        print(stmt.iterable), stmt.body);
+  }
+
   @Override
   public String visitFunctionStmt(Stmt.Function stmt) {
     StringBuilder builder = new StringBuilder("define ");
@@ -103,6 +109,11 @@ class AstPrinter implements Expr.Visitor<String>,
     return parenthesize("group", expr.expression);
   }
 
+  @Override
+  public String visitIndexExpr(Expr.Index expr) {
+    return parenthesize("index", expr.object, expr.index);
+  }
+
   @Override
   public String visitLambdaExpr(Expr.Lambda expr) {
     StringBuilder builder = new StringBuilder("lambda (");
@@ -119,6 +130,12 @@ class AstPrinter implements Expr.Visitor<String>,
     return parenthesize(builder.toString(), expr.body.toArray(new Stmt[expr.body.size()]));
   }
 
+  @Override
+  public String visitListLiteralExpr(Expr.ListLiteral expr) {
+    return parenthesize("list",
+                        expr.elements.toArray(new Expr[expr.elements.size()]));
+  }
+
   @Override
   public String visitLiteralExpr(Expr.Literal expr) {
     if (expr.value == null) return "nil";
@@ -146,6 +163,11 @@ class AstPrinter implements Expr.Visitor<String>,
     return parenthesize(":?", expr.left, expr.middle, expr.right);
   }
 
+  @Override
+  public String visitSetIndexExpr(Expr.SetIndex expr) {
+    return parenthesize("set-index", expr.object, expr.index, expr.value);
+  }
+
   @Override
   public String visitSuperExpr(Expr.Super expr) {
     StringBuilder builder = new StringBuilder("(get super ");
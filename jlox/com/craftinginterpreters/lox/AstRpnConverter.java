@@ -37,6 +37,15 @@ class AstRpnConverter implements Expr.Visitor<String>,
     return convert(stmt.expression);
   }
 
+  @Override
+  public String visitForInStmt(Stmt.ForIn stmt) {
+    StringBuilder builder = new StringBuilder(convert(stmt.iterable));
+    builder.append(" ");
+    builder.append(rpn("for " + stmt.name.lexeme + " in", stmt.body));
+
+    return builder.toString();
+  }
+
   @Override
   public String visitFunctionStmt(Stmt.Function stmt) {
     StringBuilder builder = new StringBuilder(stmt.name.lexeme);
@@ -134,6 +143,11 @@ class AstRpnConverter implements Expr.Visitor<String>,
     return rpn("group", expr.expression);
   }
 
+  @Override
+  public String visitIndexExpr(Expr.Index expr) {
+    return rpn("index", expr.object, expr.index);
+  }
+
   @Override
   public String visitLambdaExpr(Expr.Lambda expr) {
     StringBuilder builder = new StringBuilder();
@@ -147,6 +161,12 @@ class AstRpnConverter implements Expr.Visitor<String>,
     return builder.toString();
   }
 
+  @Override
+  public String visitListLiteralExpr(Expr.ListLiteral expr) {
+    return rpn("list " + expr.elements.size(),
+               expr.elements.toArray(new Expr[expr.elements.size()]));
+  }
+
   @Override
   public String visitLiteralExpr(Expr.Literal expr) {
     if (expr.value == null) return "nil";
@@ -171,6 +191,11 @@ class AstRpnConverter implements Expr.Visitor<String>,
     return builder.toString();
   }
 
+  @Override
+  public String visitSetIndexExpr(Expr.SetIndex expr) {
+    return rpn("set-index", expr.object, expr.index, expr.value);
+  }
+
   @Override
   public String visitSuperExpr(Expr.Super expr) {
     return "super";
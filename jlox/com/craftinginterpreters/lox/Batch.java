@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Checks and precompiles many scripts without running them. Every file is
+// scanned, parsed and resolved on the common fork-join pool with its own
+// diagnostics, and the errors are reported afterwards in command-line
+// order. Clean files are saved to the compiled-script cache.
+class Batch {
+  // Relative paths are resolved against directory.
+  static int compile(String[] paths, Path directory, boolean cache,
+                     PrintStream err) {
+    Diagnostics[] results = new Diagnostics[paths.length];
+    ForkJoinPool.commonPool().invoke(new CompileTask(
+        paths, directory, results, cache, 0, paths.length));
+
+    int status = 0;
+    for (int i = 0; i < paths.length; i++) {
+      for (String message : results[i].messages()) {
+        err.println(paths[i] + ": " + message);
+      }
+      if (results[i].hadError()) status = 65;
+    }
+    return status;
+  }
+
+  private static Diagnostics compile(Path path, Path directory,
+                                     boolean cache) {
+    Diagnostics diagnostics = new Diagnostics();
+
+    ByteBuffer source;
+    try (FileChannel channel = FileChannel.open(path)) {
+      source = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                           channel.size());
+    } catch (IOException error) {
+      diagnostics.error(0, "Could not read file.");
+      return diagnostics;
+    }
+
+    Parser parser = new Parser(
+        new Scanner(source, diagnostics).scanTokens(), diagnostics);
+    Resolver resolver = new Resolver(diagnostics);
+    ScriptCache.Writer writer = cache ? new ScriptCache.Writer() : null;
+    boolean syntaxError = false;
+
+    // As when running, nothing is resolved after a syntax error.
+    while (parser.hasNext()) {
+      int reported = diagnostics.count();
+      Stmt statement = parser.next();
+      if (diagnostics.count() > reported) syntaxError = true;
+      if (syntaxError) continue;
+
+      resolver.resolve(statement);
+      if (writer != null) writer.add(statement);
+    }
+
+    if (writer != null && !diagnostics.hadError()) {
+      Path compiled = ScriptCache.locate(source, directory);
+      try {
+        writer.commit(compiled);
+      } catch (IOException error) {
+        // The cache is only an optimization.
+      }
+    }
+    return diagnostics;
+  }
+
+  private static class CompileTask extends RecursiveAction {
+    private final String[] paths;
+    private final Path directory;
+    private final Diagnostics[] results;
+    private final boolean cache;
+    private final int from;
+    private final int to;
+
+    CompileTask(String[] paths, Path directory, Diagnostics[] results,
+                boolean cache, int from, int to) {
+      this.paths = paths;
+      this.directory = directory;
+      this.results = results;
+      this.cache = cache;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        results[from] = compile(directory.resolve(paths[from]), directory,
+                                cache);
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(
+          new CompileTask(paths, directory, results, cache, from, middle),
+          new CompileTask(paths, directory, results, cache, middle, to));
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fuel metering for untrusted scripts. Every loop back-edge and every call
+// burns one unit of fuel. Fuel is handed out in batches so the hot path is
+// a single decrement; the instruction limit, the deadline and thread
+// interruption are only checked when a batch runs out.
+//
+// Worker budgets share the instruction count and deadline of the budget
+// they were forked from, so a script can't get around its limits by doing
+// the work in parallel. Each budget adds the fuel it has burned to the
+// shared count when a batch runs out and when its worker is done, so the
+// count can run past the limit by at most a batch per running worker.
+class Budget {
+  static final long UNLIMITED = Long.MAX_VALUE;
+  private static final long BATCH = 4096;
+  // Longer time limits are treated as no limit. Deadlines further off
+  // than this could not be compared with System.nanoTime().
+  private static final long MAX_MILLIS = Long.MAX_VALUE / 2 / 1_000_000;
+
+  private final long maxInstructions;
+  private final long maxNanos;
+  private final int maxDepth;
+  // Instructions used by this budget and its forks, not counting the
+  // current batch of each.
+  private final AtomicLong spent;
+  private long deadline;
+  private long batch;
+  private long fuel;
+  private int depth;
+
+  Budget() {
+    this(UNLIMITED, UNLIMITED, Integer.MAX_VALUE);
+  }
+
+  Budget(long maxInstructions, long maxMillis, int maxDepth) {
+    this.maxInstructions = maxInstructions;
+    this.maxNanos = maxMillis > MAX_MILLIS
+        ? UNLIMITED : maxMillis * 1_000_000;
+    this.maxDepth = maxDepth;
+    this.spent = new AtomicLong();
+    start();
+  }
+
+  private Budget(Budget parent) {
+    this.maxInstructions = parent.maxInstructions;
+    this.maxNanos = parent.maxNanos;
+    this.maxDepth = parent.maxDepth;
+    this.spent = parent.spent;
+    this.deadline = parent.deadline;
+    // Workers run inside the native call that forked them.
+    this.depth = parent.depth;
+    refill();
+  }
+
+  // A budget for a worker thread. It draws on the same instruction count
+  // and deadline and continues from the current call depth.
+  Budget fork() {
+    return new Budget(this);
+  }
+
+  // Called on a fork once its worker is done with it.
+  void detach() {
+    spent.addAndGet(batch - fuel);
+    batch = 0;
+    fuel = 0;
+  }
+
+  void start() {
+    spent.set(0);
+    depth = 0;
+    deadline = maxNanos == UNLIMITED
+        ? UNLIMITED : System.nanoTime() + maxNanos;
+    refill();
+  }
+
+  void tick(Token token) {
+    if (--fuel < 0) refuel(token);
+  }
+
+  void enter(Token token) {
+    if (--fuel < 0) refuel(token);
+    if (depth >= maxDepth) {
+      throw new RuntimeError(token, "Call depth limit exceeded.");
+    }
+    depth++;
+  }
+
+  void exit() {
+    depth--;
+  }
+
+  private void refuel(Token token) {
+    // The instruction that ran out of fuel is paid from the new batch.
+    long used = spent.addAndGet(batch + 1);
+    batch = 0;
+    fuel = 0;
+    if (used > maxInstructions) {
+      throw new RuntimeError(token, "Instruction limit exceeded.");
+    }
+    if (deadline != UNLIMITED && System.nanoTime() - deadline > 0) {
+      throw new RuntimeError(token, "Time limit exceeded.");
+    }
+    if (Thread.interrupted()) {
+      throw new RuntimeError(token, "Interrupted.");
+    }
+
+    refill();
+  }
+
+  private void refill() {
+    batch = Math.min(BATCH, Math.max(0, maxInstructions - spent.get()));
+    fuel = batch;
+  }
+}
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The compile errors of one source. The scanner, parser and resolver all
+// report into the diagnostics of the source they are working on, so
+// several sources can be compiled at the same time. Lazily parsed bodies
+// are compiled into diagnostics of their own and added to their source's
+// from whichever thread first calls them.
+class Diagnostics {
+  // Each error as "Error at 'x': message", without its line.
+  private final List<String> texts = new ArrayList<>();
+  private final List<Integer> lines = new ArrayList<>();
+  // The source offset of each error, or -1 if it has none.
+  private final List<Integer> offsets = new ArrayList<>();
+
+  void error(int line, String message) {
+    report(line, -1, "", message);
+  }
+
+  void error(int line, int offset, String message) {
+    report(line, offset, "", message);
+  }
+
+  void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, token.start, " at end", message);
+    } else {
+      report(token.line, token.start, " at '" + token.lexeme + "'",
+             message);
+    }
+  }
+
+  private synchronized void report(int line, int offset, String where,
+                                   String message) {
+    report(line, offset, "Error" + where + ": " + message);
+  }
+
+  // Appends the errors of a source compiled on its own, such as a lazily
+  // parsed body.
+  void addAll(Diagnostics other) {
+    for (int i = 0; i < other.count(); i++) {
+      report(other.line(i), other.offset(i), other.text(i));
+    }
+  }
+
+  private synchronized void report(int line, int offset, String text) {
+    texts.add(text);
+    lines.add(line);
+    offsets.add(offset);
+  }
+
+  synchronized boolean hadError() {
+    return !texts.isEmpty();
+  }
+
+  synchronized int count() {
+    return texts.size();
+  }
+
+  synchronized String message(int index) {
+    return format(lines.get(index), texts.get(index));
+  }
+
+  synchronized int line(int index) {
+    return lines.get(index);
+  }
+
+  synchronized int offset(int index) {
+    return offsets.get(index);
+  }
+
+  synchronized String text(int index) {
+    return texts.get(index);
+  }
+
+  static String format(int line, String text) {
+    return "[line " + line + "] " + text;
+  }
+
+  synchronized List<String> messages() {
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) messages.add(message(i));
+    return messages;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < texts.size(); i++) {
+      builder.append(message(i)).append('\n');
+    }
+    return builder.toString();
+  }
+}
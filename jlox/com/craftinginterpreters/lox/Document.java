@@ -0,0 +1,288 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// A source file that is edited in place, for editors and hot reloading.
+// The compiled form is kept as a list of top-level declarations, each with
+// its byte range, its resolved statement and its errors. An edit only
+// re-scans, re-parses and re-resolves the declarations around it.
+//
+// Top-level declarations are independent of each other once resolved,
+// since they only share globals, which the resolver doesn't track.
+// Declarations after the edit are reused, with their ranges and errors
+// moved by what the edit added or removed. Tokens can't move, so a reused
+// statement whose tokens are out of place is compiled again the next time
+// it is asked for.
+class Document {
+  private static class Declaration {
+    int start;
+    int end;
+    int line;
+    int endLine;
+    // Null if the declaration has a syntax error.
+    Stmt statement;
+    final List<Message> errors;
+    // Whether the statement's tokens are before an edit that moved them.
+    boolean stale = false;
+    // Whether the statement was compiled since changes() last returned it.
+    boolean changed = true;
+
+    Declaration(int start, int end, int line, int endLine, Stmt statement,
+                List<Message> errors) {
+      this.start = start;
+      this.end = end;
+      this.line = line;
+      this.endLine = endLine;
+      this.statement = statement;
+      this.errors = errors;
+    }
+  }
+
+  private static class Message {
+    int line;
+    final String text;
+
+    Message(int line, String text) {
+      this.line = line;
+      this.text = text;
+    }
+  }
+
+  private byte[] source;
+  private final List<Declaration> declarations = new ArrayList<>();
+
+  Document(String text) {
+    source = text.getBytes(StandardCharsets.UTF_8);
+    compile(0, source.length, 1, declarations);
+  }
+
+  String text() {
+    return new String(source, StandardCharsets.UTF_8);
+  }
+
+  // The top-level statements without syntax errors, in source order.
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+    for (Declaration declaration : declarations) {
+      if (declaration.statement != null) {
+        statements.add(statement(declaration));
+      }
+    }
+    return statements;
+  }
+
+  // The statements compiled since the last call, in source order, for
+  // running again what was edited. At first that is every statement.
+  List<Stmt> changes() {
+    List<Stmt> statements = new ArrayList<>();
+    for (Declaration declaration : declarations) {
+      if (declaration.changed && declaration.statement != null) {
+        statements.add(statement(declaration));
+      }
+      declaration.changed = false;
+    }
+    return statements;
+  }
+
+  List<String> errors() {
+    List<String> errors = new ArrayList<>();
+    for (Declaration declaration : declarations) {
+      for (Message error : declaration.errors) {
+        errors.add(Diagnostics.format(error.line, error.text));
+      }
+    }
+    return errors;
+  }
+
+  // Replaces the length bytes at offset with the text. Offsets are in
+  // UTF-8 bytes. Returns the statements that were compiled again.
+  List<Stmt> edit(int offset, int length, String text) {
+    byte[] inserted = text.getBytes(StandardCharsets.UTF_8);
+    byte[] old = source;
+    source = new byte[old.length - length + inserted.length];
+    System.arraycopy(old, 0, source, 0, offset);
+    System.arraycopy(inserted, 0, source, offset, inserted.length);
+    System.arraycopy(old, offset + length, source,
+                     offset + inserted.length, old.length - offset - length);
+    int delta = inserted.length - length;
+    int lines = countLines(inserted, 0, inserted.length) -
+                countLines(old, offset, offset + length);
+
+    // Keep the declarations that end before the edit, except the last
+    // one, which the edit may extend (an 'else' after an 'if'). Error
+    // recovery can skip across declarations, so parsing must also start
+    // after one that parsed cleanly.
+    int first = 0;
+    while (first < declarations.size() &&
+           declarations.get(first).end < offset) {
+      first++;
+    }
+    if (first > 0) first--;
+    while (first > 0 && declarations.get(first - 1).statement == null) {
+      first--;
+    }
+    int from = first == 0 ? 0 : declarations.get(first - 1).end;
+    int line = first == 0 ? 1 : declarations.get(first - 1).endLine;
+
+    int next = first;
+    while (next < declarations.size() &&
+           declarations.get(next).start < offset + length) {
+      next++;
+    }
+
+    List<Declaration> compiled = new ArrayList<>();
+    for (;;) {
+      // Parsing can resume at a declaration after the edit that parsed
+      // cleanly and starts a line of its own after the edit, so that no
+      // line comment can run into it.
+      while (next < declarations.size() &&
+             (!declarations.get(next).errors.isEmpty() ||
+              !startsLine(old, declarations.get(next).start,
+                          offset + length))) {
+        next++;
+      }
+
+      int to = next < declarations.size()
+          ? declarations.get(next).start + delta
+          : source.length;
+      compiled.clear();
+      if (!compile(from, to, line, compiled) || to == source.length) break;
+
+      // The edit left a block, string or comment open, or a syntax error
+      // that recovery might skip past, so try resuming further on.
+      next++;
+    }
+
+    List<Declaration> reused = declarations.subList(next,
+                                                    declarations.size());
+    if (delta != 0 || lines != 0) {
+      for (Declaration declaration : reused) {
+        declaration.start += delta;
+        declaration.end += delta;
+        declaration.line += lines;
+        declaration.endLine += lines;
+        for (Message error : declaration.errors) error.line += lines;
+        if (declaration.statement != null) declaration.stale = true;
+      }
+    }
+    declarations.subList(first, next).clear();
+    declarations.addAll(first, compiled);
+    assert matches(new Document(text())) : "Edit differs from a recompile.";
+
+    List<Stmt> statements = new ArrayList<>();
+    for (Declaration declaration : compiled) {
+      if (declaration.statement != null) {
+        statements.add(declaration.statement);
+      }
+    }
+    return statements;
+  }
+
+  // Compiles a stale declaration again, where it is now. It parsed
+  // cleanly before, so it still compiles to one statement with the same
+  // errors.
+  private Stmt statement(Declaration declaration) {
+    if (declaration.stale) {
+      List<Declaration> compiled = new ArrayList<>();
+      compile(declaration.start, declaration.end, declaration.line,
+              compiled);
+      declaration.statement = compiled.get(0).statement;
+      declaration.stale = false;
+    }
+    return declaration.statement;
+  }
+
+  // Whether this has the same errors, and the same statements down to
+  // their tokens' positions, as the other.
+  private boolean matches(Document other) {
+    ScriptCache.Writer mine = new ScriptCache.Writer();
+    for (Stmt statement : statements()) mine.add(statement);
+    ScriptCache.Writer theirs = new ScriptCache.Writer();
+    for (Stmt statement : other.statements()) theirs.add(statement);
+    return errors().equals(other.errors()) && mine.sameAs(theirs);
+  }
+
+  // Scans, parses and resolves the declarations from start to end. Scan
+  // errors belong to the declaration they occur in, or to the one after
+  // if they fall between two. Returns true if the range ended in the
+  // middle of something or in a syntax error.
+  private boolean compile(int start, int end, int line,
+                          List<Declaration> compiled) {
+    Diagnostics diagnostics = new Diagnostics();
+    TokenBuffer tokens = new Scanner(ByteBuffer.wrap(source), diagnostics,
+                                     start, end, line).scanTokens();
+    int scanned = diagnostics.count();
+    Parser parser = new Parser(tokens, diagnostics);
+    Resolver resolver = new Resolver(diagnostics);
+
+    int scanError = 0;
+    while (parser.hasNext()) {
+      int first = parser.position();
+      int reported = diagnostics.count();
+      Stmt statement = parser.next();
+      if (diagnostics.count() == reported) {
+        resolver.resolve(statement);
+      } else {
+        // A nested syntax error leaves holes in the tree.
+        statement = null;
+      }
+      int last = parser.position() - 1;
+
+      List<Message> errors = new ArrayList<>();
+      for (; scanError < scanned &&
+             diagnostics.offset(scanError) < tokens.end(last);
+           scanError++) {
+        errors.add(error(diagnostics, scanError));
+      }
+      for (int i = reported; i < diagnostics.count(); i++) {
+        errors.add(error(diagnostics, i));
+      }
+      compiled.add(new Declaration(tokens.start(first), tokens.end(last),
+                                   tokens.line(first), tokens.line(last),
+                                   statement, errors));
+    }
+
+    // Scan errors after the last declaration.
+    if (scanError < scanned) {
+      List<Message> errors = new ArrayList<>();
+      for (; scanError < scanned; scanError++) {
+        errors.add(error(diagnostics, scanError));
+      }
+      int last = tokens.line(tokens.size() - 1);
+      compiled.add(new Declaration(end, end, last, last, null, errors));
+    }
+
+    for (int i = 0; i < diagnostics.count(); i++) {
+      if (diagnostics.offset(i) >= end) return true;
+    }
+    return !compiled.isEmpty() &&
+           compiled.get(compiled.size() - 1).statement == null;
+  }
+
+  private static Message error(Diagnostics diagnostics, int index) {
+    return new Message(diagnostics.line(index), diagnostics.text(index));
+  }
+
+  // Whether only blanks come between the start and a newline at or after
+  // the limit.
+  private static boolean startsLine(byte[] bytes, int start, int limit) {
+    for (int i = start - 1; i >= limit; i--) {
+      if (bytes[i] == '\n') return true;
+      if (bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r') {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static int countLines(byte[] bytes, int from, int to) {
+    int lines = 0;
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == '\n') lines++;
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,177 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A fixed-length array of numbers stored unboxed in a double[]. Elements
+// are only boxed when a script reads one out. The bulk methods run as
+// plain counted loops over the arrays, which the JIT unrolls and
+// vectorizes, so a whole-array operation costs one Lox call instead of a
+// Lox loop that boxes every intermediate value.
+//
+// add, scale and fill update the array in place. map and copy return a
+// new array.
+class DoubleArray {
+  private final double[] elements;
+  // The interpreter that created the array, which may change it.
+  final Interpreter owner;
+
+  DoubleArray(double[] elements, Interpreter owner) {
+    this.elements = elements;
+    this.owner = owner;
+  }
+
+  int size() {
+    return elements.length;
+  }
+
+  double get(int index) {
+    return elements[index];
+  }
+
+  void set(int index, double value) {
+    elements[index] = value;
+  }
+
+  Object get(Token name) {
+    switch (name.lexeme) {
+      case "length":
+        return (long)elements.length;
+      case "add":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          add(other(arguments.get(0)));
+          return this;
+        });
+      case "scale":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          scale(number(arguments.get(0)));
+          return this;
+        });
+      case "fill":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          Arrays.fill(elements, number(arguments.get(0)));
+          return this;
+        });
+      case "dot":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            dot(other(arguments.get(0))));
+      case "sum":
+        return new NativeFunction(0, (interpreter, arguments) -> sum());
+      case "min":
+        return new NativeFunction(0, (interpreter, arguments) -> min());
+      case "max":
+        return new NativeFunction(0, (interpreter, arguments) -> max());
+      case "map":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          LoxCallable function = NativeFunction.callback(arguments.get(0), 1);
+          interpreter.allocate(Heap.doubles(elements.length), null);
+          return map(interpreter, function);
+        });
+      case "copy":
+        return new NativeFunction(0, (interpreter, arguments) -> {
+          interpreter.allocate(Heap.doubles(elements.length), null);
+          return new DoubleArray(elements.clone(), interpreter);
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  private void add(double[] other) {
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] += other[i];
+    }
+  }
+
+  private void scale(double factor) {
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] *= factor;
+    }
+  }
+
+  // Sums in four independent lanes. A single accumulator serializes every
+  // addition on the one before it, which the JIT must keep in order.
+  private double dot(double[] other) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 3 < elements.length; i += 4) {
+      s0 += elements[i] * other[i];
+      s1 += elements[i + 1] * other[i + 1];
+      s2 += elements[i + 2] * other[i + 2];
+      s3 += elements[i + 3] * other[i + 3];
+    }
+    for (; i < elements.length; i++) s0 += elements[i] * other[i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private double sum() {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 3 < elements.length; i += 4) {
+      s0 += elements[i];
+      s1 += elements[i + 1];
+      s2 += elements[i + 2];
+      s3 += elements[i + 3];
+    }
+    for (; i < elements.length; i++) s0 += elements[i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private Object min() {
+    if (elements.length == 0) return null;
+    double min = elements[0];
+    for (int i = 1; i < elements.length; i++) {
+      min = Math.min(min, elements[i]);
+    }
+    return min;
+  }
+
+  private Object max() {
+    if (elements.length == 0) return null;
+    double max = elements[0];
+    for (int i = 1; i < elements.length; i++) {
+      max = Math.max(max, elements[i]);
+    }
+    return max;
+  }
+
+  private DoubleArray map(Interpreter interpreter, LoxCallable function) {
+    double[] result = new double[elements.length];
+    Object[] argument = new Object[1];
+    for (int i = 0; i < elements.length; i++) {
+      argument[0] = elements[i];
+      result[i] = number(
+          interpreter.call(function, Arrays.asList(argument), null));
+    }
+    return new DoubleArray(result, interpreter);
+  }
+
+  private double[] other(Object argument) {
+    if (!(argument instanceof DoubleArray)) {
+      throw NativeFunction.error("Argument must be a DoubleArray.");
+    }
+    double[] other = ((DoubleArray)argument).elements;
+    if (other.length != elements.length) {
+      throw NativeFunction.error("Arrays must have the same length.");
+    }
+    return other;
+  }
+
+  static double number(Object value) {
+    if (Interpreter.isNumber(value)) return Interpreter.toDouble(value);
+    throw NativeFunction.error("Value must be a number.");
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("DoubleArray[");
+    for (int i = 0; i < elements.length; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(Interpreter.stringify(elements[i]));
+    }
+    return builder.append("]").toString();
+  }
+}
@@ -5,7 +5,14 @@ import java.util.List;
 
 class Environment {
   final Environment enclosing;
+  // The interpreter that created this environment. Only it may assign
+  // variables here while it runs alongside other workers.
+  final Interpreter owner;
   private final List<VariableInfo> values = new ArrayList<>();
+  // Set once a closure holds on to this environment, so that it outlives
+  // the block or call that created it. Workers can set it on environments
+  // they share.
+  private volatile boolean captured = false;
 
   private class VariableInfo {
     private Object value = null;
@@ -15,8 +22,26 @@ class Environment {
     }
   }
 
-  Environment(Environment enclosing) {
+  Environment(Environment enclosing, Interpreter owner) {
     this.enclosing = enclosing;
+    this.owner = owner;
+  }
+
+  // Marks this environment and the ones around it as captured.
+  void capture() {
+    for (Environment environment = this;
+         environment != null && !environment.captured;
+         environment = environment.enclosing) {
+      environment.captured = true;
+    }
+  }
+
+  boolean isCaptured() {
+    return captured;
+  }
+
+  int size() {
+    return values.size();
   }
 
   void define(int slot, Object value) {
@@ -46,7 +71,12 @@ class Environment {
     while (values.size() <= slot) {
       values.add(null);
     }
-    values.set(slot, new VariableInfo(value));
+    VariableInfo variable = values.get(slot);
+    if (variable != null) {
+      variable.value = value;
+    } else {
+      values.set(slot, new VariableInfo(value));
+    }
   }
 
   void assignAt(int distance, int slot, Object value) {
@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Approximate accounting of the memory a script is holding on to. The
+// interpreter charges the estimated size of every instance, field,
+// closure, environment, variable and string it creates on behalf of the
+// script, and a runtime error is raised once the total passes the limit.
+// Sizes assume a 64-bit JVM with compressed references.
+//
+// Environments are credited back when their block or call finishes,
+// unless a closure captured them. Instances, strings and collections are
+// not: the interpreter can't tell cheaply when they become garbage, so
+// they stay counted for the rest of the run and the total is an upper
+// bound on what is live.
+class Heap {
+  static final long UNLIMITED = Long.MAX_VALUE;
+
+  static final long INSTANCE = 72;
+  static final long FIELD = 40;
+  static final long CLOSURE = 32;
+  static final long ENVIRONMENT = 96;
+  static final long VARIABLE = 24;
+  static final long BOUND_METHOD = CLOSURE + ENVIRONMENT + VARIABLE;
+  static final long LIST = 24;
+  static final long MAP = 40;
+
+  private static final long CHUNK = 64 * 1024;
+
+  private final long limit;
+  // Shared by a heap and its forks.
+  private final AtomicLong total;
+  // Counted by the thread that owns this heap and not yet added to the
+  // total. It can be negative after credits.
+  private long pending = 0;
+
+  Heap() {
+    this(UNLIMITED);
+  }
+
+  Heap(long limit) {
+    this(limit, new AtomicLong());
+  }
+
+  private Heap(long limit, AtomicLong total) {
+    this.limit = limit;
+    this.total = total;
+  }
+
+  // A heap for a worker thread. Every heap counts locally and forwards to
+  // the shared total in chunks, to keep contention down.
+  Heap fork() {
+    return new Heap(limit, total);
+  }
+
+  static long string(int length) {
+    return 40 + length;
+  }
+
+  static long array(int length) {
+    return 16 + 4L * length;
+  }
+
+  static long doubles(int length) {
+    return 32 + 8L * length;
+  }
+
+  // Counts an allocation that has no token to report an error against.
+  // The limit is enforced at the next checked allocation.
+  void add(long bytes) {
+    pending += bytes;
+  }
+
+  // Credits memory the script no longer holds.
+  void release(long bytes) {
+    pending -= bytes;
+  }
+
+  void allocate(long bytes, Token token) {
+    pending += bytes;
+    long used = pending < CHUNK ? total.get() + pending
+                                : total.addAndGet(take());
+    if (used <= limit) return;
+
+    throw new RuntimeError(token, "Memory limit exceeded.");
+  }
+
+  // Hands whatever this heap has counted so far to the shared total.
+  void flush() {
+    total.addAndGet(take());
+  }
+
+  // What this heap and its forks hold. Forks still running may not have
+  // forwarded their last chunk yet.
+  long allocated() {
+    return total.get() + pending;
+  }
+
+  void reset() {
+    total.set(0);
+    pending = 0;
+  }
+
+  private long take() {
+    long bytes = pending;
+    pending = 0;
+    return bytes;
+  }
+}
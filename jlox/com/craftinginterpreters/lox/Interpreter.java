@@ -1,18 +1,64 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void> {
-  final Map<String, Object> globals = new HashMap<>();
+  // Boxes for the integers loops and indexes use most.
+  private static final long SMALL_MIN = -128;
+  private static final long SMALL_MAX = 1024;
+  private static final Long[] smallIntegers =
+      new Long[(int)(SMALL_MAX - SMALL_MIN)];
+
+  static {
+    for (int i = 0; i < smallIntegers.length; i++) {
+      smallIntegers[i] = SMALL_MIN + i;
+    }
+  }
+
+  final Map<String, Object> globals;
+  // Files the script has opened and not yet closed.
+  private final Set<LoxFile> files;
   private Environment environment = null;
-  private final Map<Object, Integer> locals = new HashMap<>();
-  private final Map<Object, Integer> slots = new HashMap<>();
+  private Budget budget = new Budget();
+  private Heap heap = new Heap();
+  private final Output output;
+  private final PrintStream errors;
+  private boolean hadRuntimeError = false;
+  // Lambdas are numbered per run, so the daemon prints the same names as
+  // a fresh interpreter would.
+  private final AtomicInteger lambdaIds;
+  // What relative paths in the script are resolved against.
+  private final Path directory;
+  // The interpreter this one was forked from, or null.
+  private final Interpreter parent;
 
   Interpreter() {
+    this(Paths.get(System.getProperty("user.dir")), System.out, System.err);
+  }
+
+  // Print statements write to out, and runtime errors are reported to
+  // err. Files the script opens are found relative to directory.
+  Interpreter(Path directory, PrintStream out, PrintStream err) {
+    this.directory = directory;
+    globals = new HashMap<>();
+    files = Collections.synchronizedSet(new LinkedHashSet<>());
+    output = new Output(out);
+    errors = err;
+    lambdaIds = new AtomicInteger();
+    parent = null;
+
     globals.put("clock", new LoxCallable() {
       @Override
       public int arity() { return 0; }
@@ -26,30 +72,253 @@ class Interpreter implements Expr.Visitor<Object>,
       @Override
       public String toString() { return "<native fn>"; }
     });
+
+    globals.put("parallelMap", new NativeFunction(2,
+        (interpreter, arguments) -> {
+          List<Object> result = Parallel.map(interpreter,
+              list(arguments.get(0)),
+              NativeFunction.callback(arguments.get(1), 1));
+          interpreter.allocate(Heap.LIST + Heap.array(result.size()), null);
+          return new LoxList(result, interpreter);
+        }));
+    globals.put("parallelFilter", new NativeFunction(2,
+        (interpreter, arguments) -> {
+          List<Object> result = Parallel.filter(interpreter,
+              list(arguments.get(0)),
+              NativeFunction.callback(arguments.get(1), 1));
+          interpreter.allocate(Heap.LIST + Heap.array(result.size()), null);
+          return new LoxList(result, interpreter);
+        }));
+    globals.put("DoubleArray", new NativeFunction(1,
+        (interpreter, arguments) -> {
+          Object argument = arguments.get(0);
+          double[] elements;
+          if (argument instanceof LoxList) {
+            List<Object> values = ((LoxList)argument).values();
+            interpreter.allocate(Heap.doubles(values.size()), null);
+            elements = new double[values.size()];
+            for (int i = 0; i < elements.length; i++) {
+              elements[i] = DoubleArray.number(values.get(i));
+            }
+          } else {
+            double length = DoubleArray.number(argument);
+            if (length < 0 || length != Math.rint(length)) {
+              throw NativeFunction.error("Length must be a whole number.");
+            }
+            if (length > Integer.MAX_VALUE) {
+              throw NativeFunction.error("Length is too large.");
+            }
+            interpreter.allocate(Heap.doubles((int)length), null);
+            elements = new double[(int)length];
+          }
+          return new DoubleArray(elements, interpreter);
+        }));
+    globals.put("Map", new NativeFunction(0, (interpreter, arguments) -> {
+      interpreter.allocate(Heap.MAP, null);
+      return new LoxMap(interpreter);
+    }));
+    globals.put("Buffer", new NativeFunction(1,
+        (interpreter, arguments) -> {
+          double size = DoubleArray.number(arguments.get(0));
+          if (size < 0 || size != Math.rint(size) ||
+              size > Integer.MAX_VALUE) {
+            throw NativeFunction.error("Size must be a whole number.");
+          }
+          interpreter.allocate((long)size, null);
+          return LoxBuffer.allocate((int)size, interpreter);
+        }));
+    globals.put("mapFile", new NativeFunction(2,
+        (interpreter, arguments) -> {
+          if (!LoxString.isString(arguments.get(0))) {
+            throw NativeFunction.error("Path must be a string.");
+          }
+          return LoxBuffer.map(arguments.get(0).toString(),
+                               isTruthy(arguments.get(1)), interpreter);
+        }));
+    globals.put("openFile", new NativeFunction(2,
+        (interpreter, arguments) -> {
+          if (!LoxString.isString(arguments.get(0)) ||
+              !LoxString.isString(arguments.get(1))) {
+            throw NativeFunction.error("Path and mode must be strings.");
+          }
+          LoxFile file = LoxFile.open(arguments.get(0).toString(),
+                                      arguments.get(1).toString(),
+                                      interpreter);
+          interpreter.files.add(file);
+          return file;
+        }));
+    globals.put("range", new NativeFunction(2,
+        (interpreter, arguments) -> new LoxRange(
+            whole(arguments.get(0)), whole(arguments.get(1)))));
+    globals.put("parallelReduce", new NativeFunction(3,
+        (interpreter, arguments) -> Parallel.reduce(interpreter,
+            list(arguments.get(0)),
+            NativeFunction.callback(arguments.get(1), 2), arguments.get(2))));
+  }
+
+  private static List<Object> list(Object argument) {
+    if (argument instanceof LoxList) return ((LoxList)argument).values();
+    throw NativeFunction.error("Argument must be a list.");
+  }
+
+  private static long whole(Object argument) {
+    if (argument instanceof Long) return (long)argument;
+    if (argument instanceof Double &&
+        (double)argument == Math.rint((double)argument)) {
+      return (long)(double)argument;
+    }
+    throw NativeFunction.error("Argument must be an integer.");
+  }
+
+  // A worker context for running callables on another thread. Forks have
+  // an environment of their own, so each thread can be inside a different
+  // call at the same time, but they see the same globals and values as
+  // the interpreter they were forked from.
+  //
+  // Those values are not synchronized. Instead, a worker may only change
+  // values that it created: see checkOwner(). Nothing else changes shared
+  // values while workers run, since the interpreter that forked them is
+  // waiting for them to finish, so workers can read them safely.
+  private Interpreter(Interpreter parent) {
+    this.parent = parent;
+    directory = parent.directory;
+    globals = parent.globals;
+    files = parent.files;
+    output = parent.output;
+    errors = parent.errors;
+    lambdaIds = parent.lambdaIds;
+    budget = parent.budget.fork();
+    heap = parent.heap.fork();
+  }
+
+  Interpreter fork() {
+    return new Interpreter(this);
+  }
+
+  // Called on a fork once its worker is done with it.
+  void detach() {
+    budget.detach();
+    heap.flush();
+  }
+
+  // Checks that this interpreter may change a variable, field or element
+  // of a value that owner created. Workers run alongside each other, so
+  // one may only change what it created or what the workers it forked
+  // created. Values that workers hand back belong to whoever forked them
+  // once they finish.
+  void checkOwner(Interpreter owner, Token token) {
+    if (parent == null) return;
+    for (Interpreter context = owner; context != null;
+         context = context.parent) {
+      if (context == this) return;
+    }
+    throw new RuntimeError(token,
+        "Can't change a shared value in a parallel callback.");
+  }
+
+  void setBudget(Budget budget) {
+    this.budget = budget;
+  }
+
+  Budget getBudget() {
+    return budget;
+  }
+
+  void setHeap(Heap heap) {
+    this.heap = heap;
+  }
+
+  Heap getHeap() {
+    return heap;
+  }
+
+  Output getOutput() {
+    return output;
+  }
+
+  // The file a path in the script names. The daemon runs scripts for
+  // clients in other directories, so this is not the process's working
+  // directory.
+  Path resolve(String path) {
+    return directory.resolve(path);
+  }
+
+  void closed(LoxFile file) {
+    files.remove(file);
+  }
+
+  // Closes the files the script left open, so that what they buffered is
+  // written out.
+  void closeFiles() {
+    synchronized (files) {
+      for (LoxFile file : files) {
+        try {
+          file.close();
+        } catch (IOException error) {
+          errors.println("Could not write file '" + file.path() + "'.");
+        }
+      }
+      files.clear();
+    }
+  }
+
+  void allocate(long bytes, Token token) {
+    heap.allocate(bytes, token);
   }
 
   void interpret(List<Stmt> statements) {
+    budget.start();
     try {
-      for (Stmt statement : statements) {
-        execute(statement);
-      }
+      run(statements);
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      report(error);
+    }
+  }
+
+  // Executes one top-level statement as part of a run that has already
+  // been started.
+  void interpret(Stmt statement) {
+    try {
+      execute(statement);
+    } catch (RuntimeError error) {
+      report(error);
+    }
+  }
+
+  // Prints a runtime error after whatever the script printed before it.
+  void report(RuntimeError error) {
+    output.flush();
+    errors.println(error.getMessage() +
+        "\n[line " + error.token.line + "]");
+    hadRuntimeError = true;
+  }
+
+  boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  // Executes top-level statements and lets runtime errors escape to the
+  // host instead of reporting them.
+  void run(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      execute(statement);
     }
   }
 
   void interpret(Expr expr) {
+    budget.start();
     try {
       Object value = evaluate(expr);
-      System.out.println(stringify(value));
+      output.println(value);
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      report(error);
     }
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    heap.add(Heap.ENVIRONMENT);
+    executeBlock(stmt.statements, new Environment(environment, this));
     return null;
   }
 
@@ -69,29 +338,33 @@ class Interpreter implements Expr.Visitor<Object>,
       }
     }
 
+    heap.allocate(2 * Heap.INSTANCE + Heap.CLOSURE *
+        (stmt.staticMethods.size() + stmt.methods.size()) +
+        variable(stmt.name), stmt.name);
+
     if (environment == null) {
       globals.put(stmt.name.lexeme, null);
     } else {
-      environment.define(slots.get(stmt), null);
+      environment.define(stmt.slot, null);
     }
 
     if (stmt.superclass != null) {
-      environment = new Environment(environment);
+      environment = new Environment(environment, this);
       environment.define(0, superclass);
     }
 
     Map<String, LoxFunction> staticMethods = new HashMap<>();
     for (Stmt.Function method : stmt.staticMethods) {
-      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"), lambdaIds);
       staticMethods.put(method.name.lexeme, function);
     }
     Map<String, LoxFunction> methods = new HashMap<>();
     for (Stmt.Function method : stmt.methods) {
-      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"), lambdaIds);
       methods.put(method.name.lexeme, function);
     }
 
-    LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, staticMethods, stmt.staticGetters, methods, stmt.getters);
+    LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, staticMethods, stmt.staticGetters, methods, stmt.getters, this);
     if (superclass != null) {
       environment = environment.enclosing;
     }
@@ -99,7 +372,7 @@ class Interpreter implements Expr.Visitor<Object>,
     if (environment == null) {
       globals.put(stmt.name.lexeme, klass);
     } else {
-      environment.define(slots.get(stmt), klass);
+      environment.define(stmt.slot, klass);
     }
     return null;
   }
@@ -112,11 +385,13 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    LoxFunction function = new LoxFunction(stmt, environment, false);
+    heap.allocate(Heap.CLOSURE + variable(stmt.name), stmt.name);
+    LoxFunction function = new LoxFunction(stmt, environment, false,
+                                           lambdaIds);
     if (environment == null) {
       globals.put(stmt.name.lexeme, function);
     } else {
-      environment.define(slots.get(stmt), function);
+      environment.define(stmt.slot, function);
     }
     return null;
   }
@@ -134,7 +409,7 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    output.println(value);
     return null;
   }
 
@@ -149,18 +424,130 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
     Object value = null;
-    if (stmt.initializer != null) {
-      value = evaluate(stmt.initializer);
-      if (environment != null) {
-        environment.define(slots.get(stmt), value);
-      }
-    }
+    if (stmt.initializer != null) value = evaluate(stmt.initializer);
+    define(stmt, value);
+    return null;
+  }
+
+  // Defines a variable once its initializer, if any, has been evaluated.
+  void define(Stmt.Var stmt, Object value) {
+    heap.allocate(variable(stmt.name), stmt.name);
     if (environment == null) {
       globals.put(stmt.name.lexeme, value);
+    } else if (stmt.initializer != null) {
+      environment.define(stmt.slot, value);
+    }
+  }
+
+  // What declaring a name costs: a slot in the current environment, or an
+  // entry in the globals unless the name is being redefined.
+  private long variable(Token name) {
+    if (environment == null && globals.containsKey(name.lexeme)) return 0;
+    return Heap.VARIABLE;
+  }
+
+  // Runs the body once for every element of the iterable. Lists, arrays,
+  // ranges, maps, strings and files are walked directly, with no iterator
+  // object. Maps give their keys, strings their characters and files
+  // their lines. Any other instance is asked for an iterator() if it has
+  // one, and is otherwise its own iterator: the loop calls its hasNext()
+  // and next() methods.
+  //
+  // The loop variable is one variable assigned on every pass, as with a
+  // C-style for.
+  @Override
+  public Void visitForInStmt(Stmt.ForIn stmt) {
+    Object iterable = evaluate(stmt.iterable);
+
+    Environment previous = environment;
+    heap.allocate(Heap.ENVIRONMENT + Heap.VARIABLE, stmt.keyword);
+    environment = new Environment(previous, this);
+    environment.define(stmt.slot, null);
+    try {
+      iterate(stmt, iterable);
+    } catch (RuntimeError error) {
+      // Natives don't know where they were called from.
+      if (error.token != null) throw error;
+      throw new RuntimeError(stmt.keyword, error.getMessage());
+    } finally {
+      release(environment);
+      environment = previous;
     }
     return null;
   }
 
+  private void iterate(Stmt.ForIn stmt, Object iterable) {
+    if (iterable instanceof LoxList) {
+      LoxList list = (LoxList)iterable;
+      // The size is read every pass, so the body may append.
+      for (int i = 0; i < list.size(); i++) {
+        if (!pass(stmt, list.get(i))) return;
+      }
+    } else if (iterable instanceof DoubleArray) {
+      DoubleArray array = (DoubleArray)iterable;
+      for (int i = 0; i < array.size(); i++) {
+        if (!pass(stmt, array.get(i))) return;
+      }
+    } else if (iterable instanceof LoxRange) {
+      LoxRange range = (LoxRange)iterable;
+      for (long i = range.start; i < range.end; i++) {
+        if (!pass(stmt, integer(i))) return;
+      }
+    } else if (iterable instanceof LoxMap) {
+      LoxMap map = (LoxMap)iterable;
+      for (int slot = 0; slot < map.capacity(); slot++) {
+        Object key = map.keyAt(slot);
+        if (key != null && !pass(stmt, key)) return;
+      }
+    } else if (LoxString.isString(iterable)) {
+      String string = iterable.toString();
+      for (int i = 0; i < string.length(); i++) {
+        if (!pass(stmt, String.valueOf(string.charAt(i)))) return;
+      }
+    } else if (iterable instanceof LoxFile) {
+      LoxFile file = (LoxFile)iterable;
+      for (String line = file.nextLine(this); line != null;
+           line = file.nextLine(this)) {
+        if (!pass(stmt, line)) return;
+      }
+    } else if (iterable instanceof LoxInstance) {
+      LoxInstance iterator = (LoxInstance)iterable;
+      LoxFunction method = iterator.findMethod("iterator");
+      if (method != null) {
+        Object result = callMethod(method, "iterator", stmt.keyword);
+        if (!(result instanceof LoxInstance)) {
+          throw new RuntimeError(stmt.keyword,
+              "iterator() must return an instance.");
+        }
+        iterator = (LoxInstance)result;
+      }
+
+      LoxFunction hasNext = iterator.findMethod("hasNext");
+      LoxFunction next = iterator.findMethod("next");
+      if (hasNext == null || next == null) {
+        throw new RuntimeError(stmt.keyword,
+            "Iterator must have hasNext() and next() methods.");
+      }
+      while (isTruthy(callMethod(hasNext, "hasNext", stmt.keyword))) {
+        if (!pass(stmt, callMethod(next, "next", stmt.keyword))) return;
+      }
+    } else {
+      throw new RuntimeError(stmt.keyword, "Can't iterate over this value.");
+    }
+  }
+
+  // Runs the body for one element. Returns false if it broke out.
+  private boolean pass(Stmt.ForIn stmt, Object value) {
+    environment.assign(stmt.slot, value);
+    try {
+      execute(stmt.body);
+    } catch (Break e) {
+      return false;
+    }
+    budget.tick(stmt.keyword);
+    return true;
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
@@ -169,18 +556,24 @@ class Interpreter implements Expr.Visitor<Object>,
       } catch (Break e) {
         break;
       }
+      budget.tick(stmt.keyword);
     }
     return null;
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
-    Object value = evaluate(expr.value);
+    return assign(expr, evaluate(expr.value));
+  }
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, slots.get(expr), value);
+  Object assign(Expr.Assign expr, Object value) {
+    if (expr.depth != -1) {
+      Environment target = environment.ancestor(expr.depth);
+      checkOwner(target.owner, expr.name);
+      target.assign(expr.slot, value);
     } else {
+      // The globals belong to the interpreter that isn't a worker.
+      checkOwner(null, expr.name);
       if (globals.containsKey(expr.name.lexeme)) {
         globals.put(expr.name.lexeme, value);
       } else {
@@ -194,79 +587,125 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
-    Object left = evaluate(expr.left);
-    Object right = evaluate(expr.right);
+    return binary(expr, evaluate(expr.left), evaluate(expr.right));
+  }
 
+  Object binary(Expr.Binary expr, Object left, Object right) {
     switch (expr.operator.type) {
       case BANG_EQUAL: return !isEqual(left, right);
       case EQUAL_EQUAL: return isEqual(left, right);
       case GREATER:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left > (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          return (long)left > (long)right;
+        }
+        if (isNumber(left) && isNumber(right)) {
+          return toDouble(left) > toDouble(right);
         }
 
-        if (left instanceof String && right instanceof String) {
-          return ((String)left).compareTo((String)right) > 0;
+        if (LoxString.isString(left) && LoxString.isString(right)) {
+          return left.toString().compareTo(right.toString()) > 0;
         }
 
         throw new RuntimeError(expr.operator,
             "Operands must be two numbers or two strings.");
       case GREATER_EQUAL:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left >= (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          return (long)left >= (long)right;
+        }
+        if (isNumber(left) && isNumber(right)) {
+          return toDouble(left) >= toDouble(right);
         }
 
-        if (left instanceof String && right instanceof String) {
-          return ((String)left).compareTo((String)right) >= 0;
+        if (LoxString.isString(left) && LoxString.isString(right)) {
+          return left.toString().compareTo(right.toString()) >= 0;
         }
 
         throw new RuntimeError(expr.operator,
             "Operands must be two numbers or two strings.");
       case LESS:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left < (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          return (long)left < (long)right;
+        }
+        if (isNumber(left) && isNumber(right)) {
+          return toDouble(left) < toDouble(right);
         }
 
-        if (left instanceof String && right instanceof String) {
-          return ((String)left).compareTo((String)right) < 0;
+        if (LoxString.isString(left) && LoxString.isString(right)) {
+          return left.toString().compareTo(right.toString()) < 0;
         }
 
         throw new RuntimeError(expr.operator,
             "Operands must be two numbers or two strings.");
       case LESS_EQUAL:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left <= (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          return (long)left <= (long)right;
+        }
+        if (isNumber(left) && isNumber(right)) {
+          return toDouble(left) <= toDouble(right);
         }
 
-        if (left instanceof String && right instanceof String) {
-          return ((String)left).compareTo((String)right) <= 0;
+        if (LoxString.isString(left) && LoxString.isString(right)) {
+          return left.toString().compareTo(right.toString()) <= 0;
         }
 
         throw new RuntimeError(expr.operator,
             "Operands must be two numbers or two strings.");
       case MINUS:
+        if (left instanceof Long && right instanceof Long) {
+          long a = (long)left;
+          long b = (long)right;
+          long result = a - b;
+          // Overflowed if the operands differ in sign and the result has
+          // the sign of the subtrahend.
+          if (((a ^ b) & (a ^ result)) >= 0) return integer(result);
+        }
         checkNumberOperands(expr.operator, left, right);
-        return (double)left - (double)right;
+        return toDouble(left) - toDouble(right);
       case PLUS:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left + (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          long a = (long)left;
+          long b = (long)right;
+          long result = a + b;
+          // Overflowed if the result differs in sign from both operands.
+          if (((a ^ result) & (b ^ result)) >= 0) return integer(result);
+          return (double)a + (double)b;
+        }
+        if (isNumber(left) && isNumber(right)) {
+          return toDouble(left) + toDouble(right);
         }
 
-        if (left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
+        if (LoxString.isString(left) || LoxString.isString(right)) {
+          return LoxString.concat(this, expr.operator, left, right);
         }
 
         throw new RuntimeError(expr.operator,
             "Operands must be two numbers or at least one string.");
       case SLASH:
         checkNumberOperands(expr.operator, left, right);
-        if ((double)right == 0) {
+        if (toDouble(right) == 0) {
           throw new RuntimeError(expr.operator, "divide by zero.");
         }
-        return (double)left / (double)right;
+        if (left instanceof Long && right instanceof Long) {
+          long a = (long)left;
+          long b = (long)right;
+          // Only exact quotients stay integers, so 7 / 2 is still 3.5.
+          if (a % b == 0 && !(a == Long.MIN_VALUE && b == -1)) {
+            return a == 0 && b < 0 ? -0.0 : integer(a / b);
+          }
+        }
+        return toDouble(left) / toDouble(right);
       case STAR:
+        if (left instanceof Long && right instanceof Long) {
+          long a = (long)left;
+          long b = (long)right;
+          long result = a * b;
+          if (Math.multiplyHigh(a, b) == (result >> 63)) {
+            // Doubles give -0 for a zero product with a negative factor.
+            return result == 0 && (a < 0 || b < 0) ? -0.0 : integer(result);
+          }
+        }
         checkNumberOperands(expr.operator, left, right);
-        return (double)left * (double)right;
+        return toDouble(left) * toDouble(right);
       case COMMA:
         return right;
     }
@@ -296,15 +735,65 @@ class Interpreter implements Expr.Visitor<Object>,
           arguments.size() + ".");
     }
 
-    return function.call(this, arguments);
+    try {
+      return call(function, arguments, expr.paren);
+    } catch (RuntimeError error) {
+      // Natives don't know where they were called from.
+      if (error.token != null) throw error;
+      throw new RuntimeError(expr.paren, error.getMessage());
+    }
+  }
+
+  // Calls a function as a call expression does, charging what the call
+  // allocates and counting it against the budget. The caller has already
+  // checked the number of arguments.
+  Object call(LoxCallable function, List<Object> arguments, Token token) {
+    if (function instanceof LoxClass) {
+      long bytes = Heap.INSTANCE;
+      if (((LoxClass)function).findMethod("init") != null) {
+        bytes += Heap.ENVIRONMENT + Heap.VARIABLE * arguments.size();
+      }
+      heap.allocate(bytes, token);
+    } else if (function instanceof LoxLambda) {
+      heap.allocate(Heap.ENVIRONMENT + Heap.VARIABLE * arguments.size(),
+                    token);
+    }
+
+    budget.enter(token);
+    try {
+      return function.call(this, arguments);
+    } finally {
+      budget.exit();
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = evaluate(expr.object);
+    return get(expr, evaluate(expr.object));
+  }
+
+  Object get(Expr.Get expr, Object object) {
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).get(this, expr.name);
     }
+    if (object instanceof LoxList) {
+      return ((LoxList) object).get(expr.name);
+    }
+    if (object instanceof DoubleArray) {
+      return ((DoubleArray) object).get(expr.name);
+    }
+    if (object instanceof LoxMap) {
+      return ((LoxMap) object).get(expr.name);
+    }
+    if (object instanceof LoxBuffer) {
+      return ((LoxBuffer) object).get(expr.name);
+    }
+    if (object instanceof LoxFile) {
+      return ((LoxFile) object).get(expr.name);
+    }
+    if (LoxString.isString(object)) {
+      return LoxString.get(object, expr.name);
+    }
 
     throw new RuntimeError(expr.name,
         "Only instances have properties.");
@@ -315,9 +804,51 @@ class Interpreter implements Expr.Visitor<Object>,
     return evaluate(expr.expression);
   }
 
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    return index(expr, evaluate(expr.object), evaluate(expr.index));
+  }
+
+  Object index(Expr.Index expr, Object object, Object index) {
+    if (object instanceof LoxList) {
+      LoxList list = (LoxList)object;
+      return list.get(list.index(expr.bracket, index));
+    }
+    if (object instanceof DoubleArray) {
+      DoubleArray array = (DoubleArray)object;
+      return array.get(LoxList.index(expr.bracket, index, array.size()));
+    }
+    if (object instanceof LoxMap) {
+      return ((LoxMap)object).get(LoxMap.key(expr.bracket, index));
+    }
+    if (object instanceof LoxBuffer) {
+      LoxBuffer buffer = (LoxBuffer)object;
+      return integer(buffer.get(
+          LoxList.index(expr.bracket, index, buffer.size())));
+    }
+
+    throw new RuntimeError(expr.bracket,
+        "Only lists, arrays, maps and buffers can be indexed.");
+  }
+
   @Override
   public Object visitLambdaExpr(Expr.Lambda expr) {
-    return new LoxLambda(expr, environment);
+    heap.add(Heap.CLOSURE);
+    return new LoxLambda(expr, environment, lambdaIds);
+  }
+
+  @Override
+  public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+    Object[] elements = new Object[expr.elements.size()];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = evaluate(expr.elements.get(i));
+    }
+    return list(expr, elements);
+  }
+
+  Object list(Expr.ListLiteral expr, Object[] elements) {
+    heap.allocate(Heap.LIST + Heap.array(elements.length), expr.bracket);
+    return new LoxList(elements, elements.length, this);
   }
 
   @Override
@@ -348,23 +879,91 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Object visitSetExpr(Expr.Set expr) {
-    Object object = evaluate(expr.object);
+    LoxInstance object = instance(expr, evaluate(expr.object));
+    return set(expr, object, evaluate(expr.value));
+  }
 
+  // Checks the object of a field assignment before its value is evaluated.
+  static LoxInstance instance(Expr.Set expr, Object object) {
     if (!(object instanceof LoxInstance)) {
       throw new RuntimeError(expr.name,
                              "Only instances have fields.");
     }
+    return (LoxInstance)object;
+  }
+
+  Object set(Expr.Set expr, LoxInstance object, Object value) {
+    checkOwner(object.owner, expr.name);
+    if (object.set(expr.name, value)) {
+      heap.allocate(Heap.FIELD, expr.name);
+    }
+    return value;
+  }
+
+  @Override
+  public Object visitSetIndexExpr(Expr.SetIndex expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    int position = position(expr, object, index);
+    return setIndex(expr, object, index, position, evaluate(expr.value));
+  }
+
+  // Checks the subscript of an index assignment before its value is
+  // evaluated. Returns the position in a list, array or buffer, or -1 for
+  // a map.
+  int position(Expr.SetIndex expr, Object object, Object index) {
+    if (object instanceof LoxList) {
+      return ((LoxList)object).index(expr.bracket, index);
+    }
+    if (object instanceof DoubleArray) {
+      return LoxList.index(expr.bracket, index,
+                           ((DoubleArray)object).size());
+    }
+    if (object instanceof LoxMap) {
+      LoxMap.key(expr.bracket, index);
+      return -1;
+    }
+    if (object instanceof LoxBuffer) {
+      return LoxList.index(expr.bracket, index, ((LoxBuffer)object).size());
+    }
+
+    throw new RuntimeError(expr.bracket,
+        "Only lists, arrays, maps and buffers can be indexed.");
+  }
 
-    Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+  Object setIndex(Expr.SetIndex expr, Object object, Object index,
+                  int position, Object value) {
+    if (object instanceof LoxList) {
+      LoxList list = (LoxList)object;
+      checkOwner(list.owner, expr.bracket);
+      list.set(position, value);
+    } else if (object instanceof DoubleArray) {
+      DoubleArray array = (DoubleArray)object;
+      checkOwner(array.owner, expr.bracket);
+      if (!isNumber(value)) {
+        throw new RuntimeError(expr.bracket,
+            "Only numbers can be stored in an array.");
+      }
+      array.set(position, toDouble(value));
+    } else if (object instanceof LoxMap) {
+      LoxMap map = (LoxMap)object;
+      checkOwner(map.owner, expr.bracket);
+      Object key = LoxMap.key(expr.bracket, index);
+      int grown = map.put(key, value);
+      if (grown > 0) heap.allocate(3 * Heap.array(grown), expr.bracket);
+    } else {
+      LoxBuffer buffer = (LoxBuffer)object;
+      checkOwner(buffer.owner, expr.bracket);
+      buffer.set(expr.bracket, position, value);
+    }
     return value;
   }
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
+    int distance = expr.depth;
     LoxClass superclass = (LoxClass)environment.getAt(
-        distance, slots.get(expr), expr.keyword);
+        distance, expr.slot, expr.keyword);
 
     LoxInstance object = (LoxInstance)environment.getAt(
         distance - 1, 0, new Token(TokenType.THIS, "this", 0, 0));
@@ -376,6 +975,7 @@ class Interpreter implements Expr.Visitor<Object>,
           "Undefined property '" + expr.method.lexeme + "'.");
     }
 
+    heap.allocate(Heap.BOUND_METHOD, expr.method);
     return method.bind(object);
   }
 
@@ -386,15 +986,21 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
-    Object right = evaluate(expr.right);
-
+    return unary(expr, evaluate(expr.right));
+  }
 
+  Object unary(Expr.Unary expr, Object right) {
     switch (expr.operator.type) {
       case BANG:
         return !isTruthy(right);
       case MINUS:
         checkNumberOperand(expr.operator, right);
-        return -(double)right;
+        if (right instanceof Long) {
+          long value = (long)right;
+          // Negating zero gives the double -0, as it always has.
+          if (value != 0 && value != Long.MIN_VALUE) return integer(-value);
+        }
+        return -toDouble(right);
     }
 
     // Unreachable.
@@ -406,6 +1012,21 @@ class Interpreter implements Expr.Visitor<Object>,
     return lookUpVariable(expr.name, expr);
   }
 
+  // Getters are invoked by property access rather than a call expression,
+  // so they are metered here against the property name.
+  Object callGetter(LoxFunction getter, Token name) {
+    return callMethod(getter, name.lexeme, name);
+  }
+
+  // Calls a bound method without arguments, as a call expression would.
+  private Object callMethod(LoxFunction method, String name, Token token) {
+    if (method.arity() != 0) {
+      throw new RuntimeError(token,
+          "Method '" + name + "' must take no arguments.");
+    }
+    return call(method, new ArrayList<>(), token);
+  }
+
   void executeBlock(List<Stmt> statements,
                     Environment environment) {
     Environment previous = this.environment;
@@ -416,31 +1037,30 @@ class Interpreter implements Expr.Visitor<Object>,
         execute(statement);
       }
     } finally {
+      release(environment);
       this.environment = previous;
     }
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
-  }
-
-  private Object evaluate(Expr expr) {
-    return expr.accept(this);
+  // Credits an environment whose block or call has finished, unless a
+  // closure still holds on to it.
+  void release(Environment environment) {
+    if (!environment.isCaptured()) {
+      heap.release(Heap.ENVIRONMENT + Heap.VARIABLE * environment.size());
+    }
   }
 
-  void resolve(Object node, int depth, int slot) {
-    locals.put(node, depth);
-    slots.put(node, slot);
+  void execute(Stmt stmt) {
+    stmt.accept(this);
   }
 
-  void resolve(Object node, int slot) {
-    slots.put(node, slot);
+  Object evaluate(Expr expr) {
+    return expr.accept(this);
   }
 
   private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, slots.get(expr), name);
+    if (expr.depth != -1) {
+      return environment.getAt(expr.depth, expr.slot, name);
     } else {
       if (globals.containsKey(name.lexeme)) {
         return globals.get(name.lexeme);
@@ -455,30 +1075,61 @@ class Interpreter implements Expr.Visitor<Object>,
     if (a == null && b == null) return true;
     if (a == null) return false;
 
-    return a.equals(b);
+    // An integer equals the double with the same value. Doubles compare
+    // as Double.equals() does, so NaN equals itself and -0 is not 0.
+    if (isNumber(a) && isNumber(b) &&
+        !(a instanceof Long && b instanceof Long)) {
+      return Double.compare(toDouble(a), toDouble(b)) == 0;
+    }
+
+    return LoxString.flatten(a).equals(LoxString.flatten(b));
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
     return true;
   }
 
+  static boolean isNumber(Object object) {
+    return object instanceof Long || object instanceof Double;
+  }
+
+  static double toDouble(Object number) {
+    return ((Number)number).doubleValue();
+  }
+
+  // Boxes an integer, sharing the boxes of small ones.
+  static Long integer(long value) {
+    if (value >= SMALL_MIN && value < SMALL_MAX) {
+      return smallIntegers[(int)(value - SMALL_MIN)];
+    }
+    return value;
+  }
+
   private void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Double) return;
+    if (isNumber(operand)) return;
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
   private void checkNumberOperands(Token operator,
                                    Object left, Object right) {
-    if (left instanceof Double && right instanceof Double) return;
+    if (isNumber(left) && isNumber(right)) return;
 
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
 
+    // Integers print as the doubles they replace, so large ones switch to
+    // scientific notation.
+    if (object instanceof Long) {
+      long value = (long)object;
+      if (Output.plain(value)) return object.toString();
+      object = (double)value;
+    }
+
     if (object instanceof Double) {
       String text = object.toString();
       if (text.endsWith(".0")) {
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+// The body of a top-level function or method whose parsing was deferred.
+// The parser skips the body by matching its braces, so errors inside it
+// are only reported when the statements are parsed and resolved, the
+// first time the body is used. For most programs that is the first call.
+//
+// Once resolved, the statements are published through a volatile field,
+// so later reads take no lock.
+class LazyBody extends AbstractList<Stmt> {
+  private final TokenBuffer tokens;
+  private final Diagnostics diagnostics;
+  private final int open;
+  final boolean method;
+  final boolean initializer;
+  final boolean subclass;
+  Expr.Lambda lambda;
+  private volatile List<Stmt> statements = null;
+  // Guarded by this. Set before resolving, since the resolver reads the
+  // body through this list.
+  private List<Stmt> parsed = null;
+  private boolean failed = false;
+
+  // Open is the index of the body's left brace.
+  LazyBody(TokenBuffer tokens, Diagnostics diagnostics, int open,
+           boolean method, boolean initializer, boolean subclass) {
+    this.tokens = tokens;
+    this.diagnostics = diagnostics;
+    this.open = open;
+    this.method = method;
+    this.initializer = initializer;
+    this.subclass = subclass;
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+
+  private List<Stmt> statements() {
+    List<Stmt> statements = this.statements;
+    return statements != null ? statements : parse();
+  }
+
+  private synchronized List<Stmt> parse() {
+    if (failed) fail();
+    if (parsed != null) return parsed;
+
+    // Other bodies may report into the source's diagnostics at the same
+    // time, so this one's errors are collected apart.
+    Diagnostics local = new Diagnostics();
+    parsed = new Parser(tokens, local, open + 1).parseBody();
+    if (!local.hadError()) new Resolver(local).resolve(this);
+
+    if (local.hadError()) {
+      diagnostics.addAll(local);
+      failed = true;
+      fail();
+    }
+    statements = parsed;
+    return parsed;
+  }
+
+  private void fail() {
+    throw new RuntimeError(tokens.get(open), "Function body has errors.");
+  }
+}
@@ -2,114 +2,253 @@ package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  private static final StringBuilder parseError = new StringBuilder();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  // What relative paths are resolved against.
+  private final Path directory;
+  private final InputStream in;
+  private final PrintStream out;
+  private final PrintStream err;
+  // Whether out is a terminal.
+  private final boolean interactive;
+  private Interpreter interpreter;
+  private boolean lazy = false;
+  private boolean cache = true;
+  private Diagnostics diagnostics = new Diagnostics();
+
+  Lox(Path directory, InputStream in, PrintStream out, PrintStream err,
+      boolean interactive) {
+    this.directory = directory;
+    this.in = in;
+    this.out = out;
+    this.err = err;
+    this.interactive = interactive;
+  }
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
+    int status = new Lox(Paths.get(System.getProperty("user.dir")),
+                         System.in, System.out, System.err,
+                         System.console() != null).execute(args);
+    if (status != 0) System.exit(status);
+  }
+
+  // Runs one command line and returns its exit status. Each run has a Lox
+  // of its own, so the daemon can serve several at once. It must never
+  // exit the JVM, nor depend on the process's working directory.
+  int execute(String[] args) throws IOException {
+    interpreter = new Interpreter(directory, out, err);
+
+    long maxInstructions = Budget.UNLIMITED;
+    long maxMillis = Budget.UNLIMITED;
+    int maxDepth = Integer.MAX_VALUE;
+    long maxHeap = Heap.UNLIMITED;
+    boolean compile = false;
+    boolean watch = false;
+
+    int argc = 0;
+    try {
+      for (; argc < args.length && args[argc].startsWith("--"); argc++) {
+        String option = args[argc];
+        String value = option.substring(option.indexOf('=') + 1);
+        if (option.startsWith("--max-instructions=")) {
+          maxInstructions = Long.parseLong(value);
+        } else if (option.startsWith("--max-time=")) {
+          maxMillis = Long.parseLong(value);
+        } else if (option.startsWith("--max-depth=")) {
+          maxDepth = Integer.parseInt(value);
+        } else if (option.startsWith("--max-heap=")) {
+          maxHeap = Long.parseLong(value);
+        } else if (option.equals("--lazy")) {
+          lazy = true;
+        } else if (option.equals("--no-cache")) {
+          cache = false;
+        } else if (option.equals("--compile")) {
+          compile = true;
+        } else if (option.equals("--watch")) {
+          watch = true;
+        } else {
+          return usage();
+        }
+      }
+    } catch (NumberFormatException error) {
+      return usage();
+    }
+    interpreter.setBudget(new Budget(maxInstructions, maxMillis, maxDepth));
+    interpreter.setHeap(new Heap(maxHeap));
+
+    if (compile) {
+      if (argc == args.length) return usage();
+      return Batch.compile(Arrays.copyOfRange(args, argc, args.length),
+                           directory, cache, err);
+    } else if (args.length - argc > 1) {
+      return usage();
+    } else if (watch && (argc == args.length || args[argc].equals("-"))) {
+      return usage();
+    }
+
+    // Output to a terminal appears a line at a time.
+    interpreter.getOutput().setLineFlush(interactive);
+    try {
+      if (watch) {
+        Watch.run(directory.resolve(args[argc]), interpreter, err);
+        return 0;
+      }
+      if (args.length - argc == 1) return runFile(args[argc]);
       runPrompt();
+      return 0;
+    } finally {
+      // Printed output goes first, in case closing a file reports an
+      // error.
+      interpreter.getOutput().flush();
+      interpreter.closeFiles();
     }
   }
 
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+  private int usage() {
+    out.println("Usage: jlox [options] [script | -]");
+    out.println("       jlox --compile [--no-cache] script...");
+    out.println("       jlox --watch [options] script");
+    out.println("  --max-instructions=N  stop after N iterations and calls");
+    out.println("  --max-time=MS         stop after MS milliseconds");
+    out.println("  --max-depth=N         limit the call depth to N");
+    out.println("  --max-heap=BYTES      stop once the script holds BYTES");
+    out.println("  --lazy                parse function bodies on first call");
+    out.println("  --no-cache            don't read or write compiled scripts");
+    out.println("  --compile             precompile scripts without running");
+    out.println("  --watch               run the script again as it is edited");
+    return 64;
+  }
+
+  // Scripts are UTF-8. Files are mapped rather than read, so scanning
+  // starts without copying or decoding the whole file first. A path of "-"
+  // reads the script from standard input.
+  //
+  // A script that has run cleanly before is loaded from the compiled-script
+  // cache. Lazy runs bypass the cache, since writing one would parse every
+  // deferred body.
+  private int runFile(String path) throws IOException {
+    ByteBuffer source;
+    if (path.equals("-")) {
+      source = ByteBuffer.wrap(in.readAllBytes());
+    } else {
+      try (FileChannel channel =
+               FileChannel.open(directory.resolve(path))) {
+        source = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                             channel.size());
+      }
+    }
+    Path compiled = null;
+    if (cache && !lazy && !path.equals("-")) {
+      compiled = ScriptCache.locate(source, directory);
+    }
+
+    List<Stmt> statements =
+        compiled == null ? null : ScriptCache.Reader.read(compiled);
+    if (statements != null) {
+      run(statements);
+    } else {
+      run(new Scanner(source, diagnostics), compiled);
+    }
 
     // Indicate an error in the exit code.
-    if (hadError) {
-      System.err.print(parseError.toString());
-      System.exit(65);
+    if (diagnostics.hadError()) {
+      interpreter.getOutput().flush();
+      err.print(diagnostics);
+      return 65;
     }
-    if (hadRuntimeError) System.exit(70);
-}
+    if (interpreter.hadRuntimeError()) return 70;
+    return 0;
+  }
 
-  private static void runPrompt() throws IOException {
-    InputStreamReader input = new InputStreamReader(System.in);
+  private void runPrompt() throws IOException {
+    InputStreamReader input = new InputStreamReader(in);
     BufferedReader reader = new BufferedReader(input);
+    interpreter.getOutput().setLineFlush(true);
 
     for (;;) {
-      System.out.print("> ");
+      out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      run(line);
-      if (hadError) {
-        String msg = parseError.toString();
-        hadError = false;
+      diagnostics = new Diagnostics();
+      run(new Scanner(line, diagnostics), null);
+      if (diagnostics.hadError()) {
+        Diagnostics statementErrors = diagnostics;
+        diagnostics = new Diagnostics();
         runExpr(line);
-        if (hadError) {
-          System.err.print(msg);
+        if (diagnostics.hadError()) {
+          interpreter.getOutput().flush();
+          err.print(statementErrors);
         }
       }
-      parseError.setLength(0);
-      hadError = false;
     }
   }
 
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
-
-    // Stop if there was a syntax error.
-    if (hadError) return;
-
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
+  // Each top-level declaration is resolved and executed as soon as it has
+  // been parsed, so output starts early and statements that have run can
+  // be collected. After a syntax error nothing more is resolved or run,
+  // but parsing goes on so every syntax error is reported.
+  //
+  // If compiled is not null, the resolved statements are also saved there
+  // once the whole script has run without errors.
+  private void run(Scanner scanner, Path compiled) {
+    Parser parser = new Parser(scanner.scanTokens(), diagnostics, lazy);
+    Resolver resolver = new Resolver(diagnostics);
+    ScriptCache.Writer writer =
+        compiled == null ? null : new ScriptCache.Writer();
+    boolean syntaxError = false;
+
+    interpreter.getBudget().start();
+    while (parser.hasNext()) {
+      int reported = diagnostics.count();
+      Stmt statement = parser.next();
+      if (diagnostics.count() > reported) syntaxError = true;
+      if (syntaxError) continue;
+
+      resolver.resolve(statement);
+
+      // Stop running at the first resolution error.
+      if (diagnostics.hadError()) continue;
+
+      if (writer != null) writer.add(statement);
+      interpreter.interpret(statement);
+      if (interpreter.hadRuntimeError()) return;
+    }
 
-    // Stop if there was a resolution error.
-    if (hadError) return;
+    if (writer != null && !diagnostics.hadError()) {
+      try {
+        writer.commit(compiled);
+      } catch (IOException error) {
+        // The cache is only an optimization.
+      }
+    }
+  }
 
-    interpreter.interpret(statements);
+  private void run(List<Stmt> statements) {
+    interpreter.getBudget().start();
+    for (Stmt statement : statements) {
+      interpreter.interpret(statement);
+      if (interpreter.hadRuntimeError()) return;
+    }
   }
 
-  private static void runExpr(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+  private void runExpr(String source) {
+    Scanner scanner = new Scanner(source, diagnostics);
+    TokenBuffer tokens = scanner.scanTokens();
+    Parser parser = new Parser(tokens, diagnostics);
     Expr expression = parser.parseExpr();
 
     // Stop if there was a syntax error.
-    if (hadError) return;
+    if (diagnostics.hadError()) return;
 
     interpreter.interpret(expression);
   }
-
-  static void error(int line, String message) {
-    report(line, "", message);
-  }
-
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
-  }
-
-  private static void report(int line, String where,
-                             String message) {
-    parseError.append(String.format("[line %d] Error%s: %s\n", line, where, message));
-    hadError = true;
-  }
-
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-        "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
-  }
 }
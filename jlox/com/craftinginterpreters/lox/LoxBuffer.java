@@ -0,0 +1,182 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Raw bytes outside the Java heap, for binary data. A buffer is either
+// freshly allocated direct memory or a file mapped into memory, so large
+// inputs are neither copied nor held on the heap. Slices and byte order
+// views share memory with the buffer they came from.
+//
+// Scripts read and write unsigned bytes with b[i], and wider values with
+// the typed methods: u8, i32 and f64 and their setters. Buffers start out
+// big-endian.
+//
+// Buffers are indexed with ints, so they hold at most 2^31 - 1 bytes, just
+// under 2 GiB. Mapping a larger file is a runtime error that says so.
+class LoxBuffer {
+  private final ByteBuffer bytes;
+  // The interpreter that created the buffer, or the one it is a view of,
+  // which may write to it.
+  final Interpreter owner;
+
+  LoxBuffer(ByteBuffer bytes, Interpreter owner) {
+    this.bytes = bytes;
+    this.owner = owner;
+  }
+
+  static LoxBuffer allocate(int size, Interpreter owner) {
+    return new LoxBuffer(ByteBuffer.allocateDirect(size), owner);
+  }
+
+  static LoxBuffer map(String path, boolean writable, Interpreter owner) {
+    Path file = owner.resolve(path);
+    long size;
+    try (FileChannel channel = writable
+        ? FileChannel.open(file, StandardOpenOption.READ,
+                           StandardOpenOption.WRITE)
+        : FileChannel.open(file)) {
+      size = channel.size();
+      if (size <= Integer.MAX_VALUE) {
+        return new LoxBuffer(channel.map(
+            writable ? FileChannel.MapMode.READ_WRITE
+                     : FileChannel.MapMode.READ_ONLY,
+            0, size), owner);
+      }
+    } catch (IOException | RuntimeException error) {
+      throw NativeFunction.error("Could not map file '" + path + "'.");
+    }
+    throw NativeFunction.error("File '" + path + "' has " + size +
+        " bytes, more than a buffer can hold (" + Integer.MAX_VALUE + ").");
+  }
+
+  int size() {
+    return bytes.capacity();
+  }
+
+  int get(int index) {
+    return bytes.get(index) & 0xff;
+  }
+
+  void set(Token bracket, int index, Object value) {
+    checkWritable(bracket);
+    bytes.put(index, (byte)whole(bracket, value, 0, 255));
+  }
+
+  Object get(Token name) {
+    switch (name.lexeme) {
+      case "length":
+        return (long)bytes.capacity();
+      case "u8":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            Interpreter.integer(get(offset(arguments.get(0), 1))));
+      case "i32":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            (long)bytes.getInt(offset(arguments.get(0), 4)));
+      case "f64":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            bytes.getDouble(offset(arguments.get(0), 8)));
+      case "setU8":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          set(null, offset(arguments.get(0), 1), arguments.get(1));
+          return null;
+        });
+      case "setI32":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          checkWritable(null);
+          bytes.putInt(offset(arguments.get(0), 4),
+                       (int)whole(null, arguments.get(1),
+                                  Integer.MIN_VALUE, Integer.MAX_VALUE));
+          return null;
+        });
+      case "setF64":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          checkWritable(null);
+          bytes.putDouble(offset(arguments.get(0), 8),
+                          DoubleArray.number(arguments.get(1)));
+          return null;
+        });
+      case "slice":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          int from = offset(arguments.get(0), 0);
+          int to = offset(arguments.get(1), 0);
+          if (from > to) {
+            throw NativeFunction.error("Slice start is after its end.");
+          }
+          return new LoxBuffer(
+              bytes.slice(from, to - from).order(bytes.order()), owner);
+        });
+      case "littleEndian":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            view(ByteOrder.LITTLE_ENDIAN));
+      case "bigEndian":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            view(ByteOrder.BIG_ENDIAN));
+      case "string":
+        // Decodes the bytes from one offset up to another as UTF-8.
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          int from = offset(arguments.get(0), 0);
+          int to = offset(arguments.get(1), 0);
+          if (from > to) {
+            throw NativeFunction.error("Slice start is after its end.");
+          }
+          interpreter.allocate(Heap.string(to - from), null);
+          return StandardCharsets.UTF_8.decode(bytes.slice(from, to - from))
+                                       .toString();
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  private LoxBuffer view(ByteOrder order) {
+    return new LoxBuffer(bytes.duplicate().order(order), owner);
+  }
+
+  // Checks that a Lox value is an offset with room for a value of the
+  // given width after it.
+  private int offset(Object offset, int width) {
+    double value = DoubleArray.number(offset);
+    if (value != Math.rint(value)) {
+      throw NativeFunction.error("Offset must be an integer.");
+    }
+    if (value < 0 || value + width > bytes.capacity()) {
+      throw NativeFunction.error("Offset out of range.");
+    }
+    return (int)value;
+  }
+
+  private static long whole(Token token, Object value, long min, long max) {
+    if (value instanceof Long &&
+        (long)value >= min && (long)value <= max) {
+      return (long)value;
+    }
+    if (!(value instanceof Double) ||
+        (double)value != Math.rint((double)value) ||
+        (double)value < min || (double)value > max) {
+      throw new RuntimeError(token,
+          "Value must be an integer from " + min + " to " + max + ".");
+    }
+    return (long)(double)value;
+  }
+
+  private void checkWritable(Token token) {
+    if (bytes.isReadOnly()) {
+      throw new RuntimeError(token, "Buffer is read-only.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<buffer " + bytes.capacity() + ">";
+  }
+}
@@ -4,5 +4,10 @@ import java.util.List;
 
 interface LoxCallable {
   int arity();
+
+  // Calls may run on several threads at once, each with its own forked
+  // interpreter, so implementations must only evaluate code through the
+  // interpreter they are given, and must check with it before changing a
+  // value they didn't create.
   Object call(Interpreter interpreter, List<Object> arguments);
 }
@@ -10,16 +10,16 @@ class LoxClass extends LoxInstance implements LoxCallable {
   private final Map<String, LoxFunction> methods;
   private final Set<String> getters;
 
-  LoxClass(String name, Map<String, LoxFunction> methods, Set<String> getters) {
-    super(null);
+  LoxClass(String name, Map<String, LoxFunction> methods, Set<String> getters, Interpreter owner) {
+    super(null, owner);
     this.name = name;
     this.superclass = null;
     this.methods = methods;
     this.getters = getters;
   }
 
-  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> staticMethods, Set<String> staticGetters, Map<String, LoxFunction> methods, Set<String> getters) {
-    super(new LoxClass("_" + name, staticMethods, staticGetters));
+  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> staticMethods, Set<String> staticGetters, Map<String, LoxFunction> methods, Set<String> getters, Interpreter owner) {
+    super(new LoxClass("_" + name, staticMethods, staticGetters, owner), owner);
     this.name = name;
     this.superclass = superclass;
     this.methods = methods;
@@ -29,7 +29,7 @@ class LoxClass extends LoxInstance implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter,
                      List<Object> arguments) {
-    LoxInstance instance = new LoxInstance(this);
+    LoxInstance instance = new LoxInstance(this, interpreter);
     LoxFunction initializer = findMethod("init");
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, arguments);
@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+// Sends a command line to a running LoxDaemon and replays its output.
+// Exits with 75 without running anything if the daemon is unreachable,
+// turns the client away, or the command line has no script to run or is
+// a watch, so the caller can fall back to a local interpreter.
+public class LoxClient {
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: jlox <socket> [options] [script | -]");
+      System.exit(64);
+    }
+
+    // A command line with no script would start a REPL, which needs the
+    // terminal, so it is left to the local interpreter. So is a watch,
+    // which runs until interrupted.
+    boolean script = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--watch")) System.exit(75);
+      if (!args[i].startsWith("--")) script = true;
+    }
+    if (!script) System.exit(75);
+
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+    } catch (IOException error) {
+      System.exit(75);
+      return;
+    }
+
+    String[] command = Arrays.copyOfRange(args, 1, args.length);
+    boolean stdin = Arrays.asList(command).contains("-");
+    boolean answered = false;
+    try (channel) {
+      byte[] input = stdin ? System.in.readAllBytes() : new byte[0];
+
+      DataOutputStream request = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel)));
+      request.writeUTF(System.getProperty("user.dir"));
+      request.writeInt(command.length);
+      for (String arg : command) {
+        request.writeUTF(arg);
+      }
+      request.writeInt(input.length);
+      request.write(input);
+      request.flush();
+
+      DataInputStream response = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      for (;;) {
+        int stream = response.readByte();
+        answered = true;
+        if (stream == LoxDaemon.EXIT) {
+          System.exit(response.readInt());
+        }
+
+        byte[] bytes = new byte[response.readInt()];
+        response.readFully(bytes);
+        PrintStream out = stream == LoxDaemon.STDOUT ? System.out : System.err;
+        out.write(bytes);
+        out.flush();
+      }
+    } catch (IOException error) {
+      // A daemon that hangs up before answering, such as one serving
+      // another user, leaves the run to the local interpreter. Standard
+      // input can't be read twice, though.
+      if (!answered && !stdin) System.exit(75);
+      System.err.println("jlox: lost the connection to the daemon.");
+      System.exit(70);
+    }
+  }
+}
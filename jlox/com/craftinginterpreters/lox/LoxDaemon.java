@@ -0,0 +1,196 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jdk.net.ExtendedSocketOptions;
+
+// A long-lived interpreter process that serves script runs over a Unix
+// domain socket, so repeated runs skip JVM startup and reuse warm code.
+//
+// A request is the client's working directory, its command line and the
+// bytes of its standard input. Every relative path the run uses, for the
+// script, for files it opens and for the cache, is resolved against the
+// client's directory. The response is a sequence of frames, each
+// a channel byte and a length-prefixed chunk of stdout or stderr, ending
+// with an exit frame that carries the status.
+//
+// Every request runs on a worker thread with an interpreter, streams and
+// budget of its own, so several clients can be served at once. Requests
+// beyond one per processor wait for a free worker.
+//
+// Whoever can connect can run any script, including one that writes
+// files, as the daemon's user. So the socket lives in a directory only
+// that user can enter, and connections from other users are dropped.
+public class LoxDaemon {
+  static final int EXIT = 0;
+  static final int STDOUT = 1;
+  static final int STDERR = 2;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("Usage: jloxd <socket>");
+      System.exit(64);
+    }
+
+    Path socket = Paths.get(args[0]).toAbsolutePath();
+    UserPrincipal user = null;
+    try {
+      user = secure(socket.getParent());
+    } catch (IOException error) {
+      System.err.println("jloxd: " + error.getMessage());
+      System.exit(73);
+    }
+    Files.deleteIfExists(socket);
+
+    ExecutorService workers = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors());
+    try (ServerSocketChannel server =
+             ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      socket.toFile().deleteOnExit();
+
+      for (;;) {
+        SocketChannel client = server.accept();
+        if (!isFrom(client, user)) {
+          client.close();
+          continue;
+        }
+        workers.execute(() -> {
+          try (client) {
+            serve(client);
+          } catch (IOException error) {
+            System.err.println("jloxd: " + error.getMessage());
+          }
+        });
+      }
+    }
+  }
+
+  // Creates the socket's directory with access for its owner only, or
+  // checks that an existing one has it. Returns the daemon's user.
+  private static UserPrincipal secure(Path directory) throws IOException {
+    Set<PosixFilePermission> ownerOnly =
+        PosixFilePermissions.fromString("rwx------");
+    try {
+      Files.createDirectory(directory,
+          PosixFilePermissions.asFileAttribute(ownerOnly));
+    } catch (FileAlreadyExistsException error) {
+      // Someone else may have made it, so it is checked like any other.
+    }
+
+    UserPrincipal user = directory.getFileSystem()
+        .getUserPrincipalLookupService()
+        .lookupPrincipalByName(System.getProperty("user.name"));
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) ||
+        !Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(user) ||
+        !Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS)
+              .equals(ownerOnly)) {
+      throw new IOException(directory +
+          " must be a directory that only its owner can access.");
+    }
+    return user;
+  }
+
+  // Whether the client runs as the given user. Where the platform can't
+  // tell, the socket's directory is what keeps other users out.
+  private static boolean isFrom(SocketChannel client, UserPrincipal user) {
+    try {
+      return client.getOption(ExtendedSocketOptions.SO_PEERCRED).user()
+                   .equals(user);
+    } catch (UnsupportedOperationException | IOException error) {
+      return true;
+    }
+  }
+
+  private static void serve(SocketChannel client) throws IOException {
+    DataInputStream request = new DataInputStream(
+        new BufferedInputStream(Channels.newInputStream(client)));
+    DataOutputStream response = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(client)));
+
+    Path cwd = Paths.get(request.readUTF());
+    String[] args = new String[request.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = request.readUTF();
+    }
+    byte[] input = new byte[request.readInt()];
+    request.readFully(input);
+
+    PrintStream out = new PrintStream(
+        new BufferedOutputStream(new Frames(response, STDOUT)), true);
+    PrintStream err = new PrintStream(
+        new BufferedOutputStream(new Frames(response, STDERR)), true);
+
+    int status;
+    try {
+      status = new Lox(cwd, new ByteArrayInputStream(input), out, err,
+                       false).execute(args);
+    } catch (IOException error) {
+      // The script couldn't be read. The client still gets its exit
+      // frame.
+      err.println(error);
+      status = 66;
+    } catch (RuntimeException | StackOverflowError error) {
+      err.println(error);
+      status = 70;
+    }
+    out.flush();
+    err.flush();
+
+    synchronized (response) {
+      response.writeByte(EXIT);
+      response.writeInt(status);
+      response.flush();
+    }
+  }
+
+  private static class Frames extends OutputStream {
+    private final DataOutputStream response;
+    private final int channel;
+
+    Frames(DataOutputStream response, int channel) {
+      this.response = response;
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+        throws IOException {
+      if (length == 0) return;
+
+      synchronized (response) {
+        response.writeByte(channel);
+        response.writeInt(length);
+        response.write(bytes, offset, length);
+        response.flush();
+      }
+    }
+  }
+}
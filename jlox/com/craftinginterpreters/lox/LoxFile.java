@@ -0,0 +1,215 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A file opened by a script with openFile(path, mode), where the mode is
+// "r" to read, "w" to truncate and write, or "a" to append. Reads and
+// writes go through one fixed-size buffer over a file channel, so a script
+// can stream a file of any size in constant memory.
+//
+// readLine returns the next line without its terminator, or nil at the
+// end of the file. write and writeLine write the printed form of a value.
+// Whatever is still buffered is written out by close, or by the
+// interpreter when the run finishes.
+class LoxFile {
+  private static final int CHUNK = 64 * 1024;
+
+  private final String path;
+  private final FileChannel channel;
+  private final boolean writing;
+  private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+  // A line that runs across the end of the buffer is gathered here.
+  private byte[] line = new byte[128];
+  private int lineLength = 0;
+  private boolean closed = false;
+  // The interpreter that opened the file. Reading, writing and closing
+  // all change the file's state, so only it may do them.
+  private final Interpreter owner;
+
+  private LoxFile(String path, FileChannel channel, boolean writing,
+                  Interpreter owner) {
+    this.path = path;
+    this.channel = channel;
+    this.writing = writing;
+    this.owner = owner;
+    // Reading starts with an empty buffer that the first read fills.
+    if (!writing) buffer.flip();
+  }
+
+  static LoxFile open(String path, String mode, Interpreter owner) {
+    StandardOpenOption[] options;
+    switch (mode) {
+      case "r":
+        options = new StandardOpenOption[] {StandardOpenOption.READ};
+        break;
+      case "w":
+        options = new StandardOpenOption[] {
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING};
+        break;
+      case "a":
+        options = new StandardOpenOption[] {
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND};
+        break;
+      default:
+        throw NativeFunction.error("Mode must be \"r\", \"w\" or \"a\".");
+    }
+
+    try {
+      return new LoxFile(path, FileChannel.open(owner.resolve(path), options),
+                         !mode.equals("r"), owner);
+    } catch (IOException | RuntimeException error) {
+      throw NativeFunction.error("Could not open file '" + path + "'.");
+    }
+  }
+
+  private String readLine() throws IOException {
+    lineLength = 0;
+    for (;;) {
+      if (!buffer.hasRemaining()) {
+        buffer.clear();
+        int read = channel.read(buffer);
+        buffer.flip();
+        if (read <= 0) {
+          return lineLength == 0 ? null : decode(line, 0, lineLength);
+        }
+      }
+
+      byte[] bytes = buffer.array();
+      int start = buffer.position();
+      int end = buffer.limit();
+      for (int i = start; i < end; i++) {
+        if (bytes[i] != '\n') continue;
+
+        buffer.position(i + 1);
+        // Most lines lie inside the buffer and need no copy.
+        if (lineLength == 0) return decode(bytes, start, i - start);
+        gather(bytes, start, i - start);
+        return decode(line, 0, lineLength);
+      }
+
+      gather(bytes, start, end - start);
+      buffer.position(end);
+    }
+  }
+
+  void write(String text) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > buffer.remaining()) flush();
+    if (bytes.length > buffer.capacity()) {
+      ByteBuffer whole = ByteBuffer.wrap(bytes);
+      while (whole.hasRemaining()) channel.write(whole);
+    } else {
+      buffer.put(bytes);
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      if (writing) flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void gather(byte[] bytes, int start, int length) {
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(line.length * 2,
+                                          lineLength + length));
+    }
+    System.arraycopy(bytes, start, line, lineLength, length);
+    lineLength += length;
+  }
+
+  // Decodes a line, dropping the carriage return of a CRLF.
+  private static String decode(byte[] bytes, int start, int length) {
+    if (length > 0 && bytes[start + length - 1] == '\r') length--;
+    return new String(bytes, start, length, StandardCharsets.UTF_8);
+  }
+
+  Object get(Token name) {
+    switch (name.lexeme) {
+      case "readLine":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            nextLine(interpreter));
+      case "write":
+        return writer("");
+      case "writeLine":
+        return writer("\n");
+      case "close":
+        return new NativeFunction(0, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          interpreter.closed(this);
+          try {
+            close();
+          } catch (IOException error) {
+            throw NativeFunction.error(
+                "Could not write file '" + path + "'.");
+          }
+          return null;
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  // readLine() for scripts, which reports errors as natives do.
+  String nextLine(Interpreter interpreter) {
+    interpreter.checkOwner(owner, null);
+    check(false);
+    try {
+      String text = readLine();
+      if (text != null) {
+        interpreter.allocate(Heap.string(text.length()), null);
+      }
+      return text;
+    } catch (IOException error) {
+      throw NativeFunction.error("Could not read file '" + path + "'.");
+    }
+  }
+
+  private NativeFunction writer(String terminator) {
+    return new NativeFunction(1, (interpreter, arguments) -> {
+      interpreter.checkOwner(owner, null);
+      check(true);
+      try {
+        write(Interpreter.stringify(arguments.get(0)) + terminator);
+      } catch (IOException error) {
+        throw NativeFunction.error("Could not write file '" + path + "'.");
+      }
+      return null;
+    });
+  }
+
+  private void check(boolean write) {
+    if (closed) throw NativeFunction.error("File is closed.");
+    if (write != writing) {
+      throw NativeFunction.error(write ? "File is not open for writing."
+                                       : "File is not open for reading.");
+    }
+  }
+
+  String path() {
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + path + ">";
+  }
+}
@@ -1,28 +1,27 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class LoxFunction extends LoxLambda {
   private final Stmt.Function declaration;
   private final boolean isInitializer;
 
   LoxFunction(Stmt.Function declaration, Environment closure,
-              boolean isInitializer) {
-    super(declaration.lambda, closure);
+              boolean isInitializer, AtomicInteger ids) {
+    super(declaration.lambda, closure, ids);
     this.declaration = declaration;
     this.isInitializer = isInitializer;
   }
 
   LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
+    // Nothing assigns to 'this', so the environment needs no owner.
+    Environment environment = new Environment(closure, null);
     environment.define(0, instance);
-    return new LoxFunction(declaration, environment, isInitializer);
+    return new LoxFunction(declaration, environment, isInitializer, ids);
   }
 
   @Override
-  public Object call(Interpreter interpreter,
-                     List<Object> arguments) {
-    Object value = super.call(interpreter, arguments);
+  Object result(Object value) {
     if (isInitializer) return closure.getAt(0, 0, null);
     return value;
   }
@@ -1,15 +1,17 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
   private LoxClass klass;
   private final Map<String, Object> fields = new HashMap<>();
+  // The interpreter that created the instance, which may set its fields.
+  final Interpreter owner;
 
-  LoxInstance(LoxClass klass) {
+  LoxInstance(LoxClass klass, Interpreter owner) {
     this.klass = klass;
+    this.owner = owner;
   }
 
   Object get(Interpreter interpreter, Token name) {
@@ -22,17 +24,30 @@ class LoxInstance {
       if (method == null) {
         method = (LoxFunction)klass.get(interpreter, name);
       } else if (klass.isGetter(name.lexeme)) {
-        return method.bind(this).call(interpreter, new ArrayList<>());
+        return interpreter.callGetter(method.bind(this), name);
+      }
+      if (method != null) {
+        interpreter.allocate(Heap.BOUND_METHOD, name);
+        return method.bind(this);
       }
-      if (method != null) return method.bind(this);
     }
 
     throw new RuntimeError(name,
         "Undefined property '" + name.lexeme + "'.");
   }
 
-  void set(Token name, Object value) {
+  // The method with the given name, bound to this instance, or null.
+  LoxFunction findMethod(String name) {
+    if (klass == null) return null;
+    LoxFunction method = klass.findMethod(name);
+    return method == null ? null : method.bind(this);
+  }
+
+  // Returns true if this added a new field.
+  boolean set(Token name, Object value) {
+    int size = fields.size();
     fields.put(name.lexeme, value);
+    return fields.size() > size;
   }
 
  @Override
@@ -1,16 +1,20 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class LoxLambda implements LoxCallable {
-  private static int nextId = 0;
+  // Numbers the lambdas and functions of one run.
+  final AtomicInteger ids;
   private final int id;
   private final Expr.Lambda lambda;
   final Environment closure;
 
-  LoxLambda(Expr.Lambda lambda, Environment closure) {
+  LoxLambda(Expr.Lambda lambda, Environment closure, AtomicInteger ids) {
     this.closure = closure;
-    this.id = nextId++;
+    if (closure != null) closure.capture();
+    this.ids = ids;
+    this.id = ids.getAndIncrement();
     this.lambda = lambda;
   }
 
@@ -22,17 +26,28 @@ class LoxLambda implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter,
                      List<Object> arguments) {
-    Environment environment = new Environment(closure);
+    Object value = null;
+    try {
+      interpreter.executeBlock(lambda.body, enter(interpreter, arguments));
+    } catch (Return returnValue) {
+      value = returnValue.value;
+    }
+    return result(value);
+  }
+
+  // The environment the body runs in, with the parameters defined.
+  private Environment enter(Interpreter interpreter,
+                            List<Object> arguments) {
+    Environment environment = new Environment(closure, interpreter);
     for (int i = 0; i < lambda.params.size(); i++) {
       environment.define(i, arguments.get(i));
     }
+    return environment;
+  }
 
-    try {
-      interpreter.executeBlock(lambda.body, environment);
-    } catch (Return returnValue) {
-      return returnValue.value;
-    }
-    return null;
+  // What a call returns, given the value its body returned.
+  Object result(Object value) {
+    return value;
   }
 
   @Override
@@ -0,0 +1,127 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// A list of Lox values, stored in one array that doubles when it fills up.
+// Lists are indexed with a[i], and have a length property and append and
+// slice methods.
+class LoxList {
+  private Object[] elements;
+  private int count;
+  // The interpreter that created the list, which may change it.
+  final Interpreter owner;
+
+  LoxList(Object[] elements, int count, Interpreter owner) {
+    this.elements = elements;
+    this.count = count;
+    this.owner = owner;
+  }
+
+  LoxList(List<Object> values, Interpreter owner) {
+    this(values.toArray(), values.size(), owner);
+  }
+
+  int size() {
+    return count;
+  }
+
+  Object get(int index) {
+    return elements[index];
+  }
+
+  void set(int index, Object value) {
+    elements[index] = value;
+  }
+
+  // Returns the size of the new backing array if it had to grow, or 0.
+  int append(Object value) {
+    int grown = 0;
+    if (count == elements.length) {
+      grown = Math.max(8, count * 2);
+      elements = Arrays.copyOf(elements, grown);
+    }
+    elements[count++] = value;
+    return grown;
+  }
+
+  // The elements as a list, without copying.
+  List<Object> values() {
+    return Arrays.asList(elements).subList(0, count);
+  }
+
+  int index(Token bracket, Object index) {
+    return index(bracket, index, count);
+  }
+
+  // Checks that a Lox value is a valid index into a sequence of the given
+  // length and converts it.
+  static int index(Token bracket, Object index, int length) {
+    if (index instanceof Long) {
+      long value = (long)index;
+      if (value < 0 || value >= length) {
+        throw new RuntimeError(bracket, "Index out of range.");
+      }
+      return (int)value;
+    }
+    if (!(index instanceof Double)) {
+      throw new RuntimeError(bracket, "Index must be a number.");
+    }
+
+    double value = (double)index;
+    if (value != Math.rint(value)) {
+      throw new RuntimeError(bracket, "Index must be an integer.");
+    }
+    if (value < 0 || value >= length) {
+      throw new RuntimeError(bracket, "Index out of range.");
+    }
+    return (int)value;
+  }
+
+  Object get(Token name) {
+    switch (name.lexeme) {
+      case "length":
+        return (long)count;
+      case "append":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          int grown = append(arguments.get(0));
+          if (grown > 0) interpreter.allocate(Heap.array(grown), null);
+          return null;
+        });
+      case "slice":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          int from = bound(arguments.get(0));
+          int to = bound(arguments.get(1));
+          if (from > to) {
+            throw NativeFunction.error("Slice start is after its end.");
+          }
+          interpreter.allocate(Heap.LIST + Heap.array(to - from), null);
+          return new LoxList(Arrays.copyOfRange(elements, from, to),
+                             to - from, interpreter);
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  // Like index(), but allows one past the end.
+  private int bound(Object bound) {
+    if (Interpreter.isNumber(bound) &&
+        Interpreter.toDouble(bound) == count) {
+      return count;
+    }
+    return index(null, bound);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(Interpreter.stringify(elements[i]));
+    }
+    return builder.append("]").toString();
+  }
+}
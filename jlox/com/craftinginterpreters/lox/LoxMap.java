@@ -0,0 +1,234 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A hash map from strings or numbers to Lox values, written m[key] and
+// m[key] = value. Like clox's table, it is one open-addressed array probed
+// linearly, with tombstones for removed entries. Keys, values and hashes
+// are kept in parallel arrays, so a probe compares the stored hash before
+// it looks at the key and nothing is allocated per entry.
+//
+// Keys compare as they do with ==, so 1 and "1" are different keys, but 1
+// and 1.0 are the same.
+class LoxMap {
+  private static final double MAX_LOAD = 0.75;
+  private static final Object TOMBSTONE = new Object();
+
+  private Object[] keys = new Object[0];
+  private Object[] values = new Object[0];
+  private int[] hashes = new int[0];
+  // Live entries, and live entries plus tombstones.
+  private int count = 0;
+  private int used = 0;
+  // Bumped whenever entries are added, removed or moved, so a walk can
+  // tell that the table changed under it. Replacing a value doesn't count.
+  private int modifications = 0;
+  // The interpreter that created the map, which may change it.
+  final Interpreter owner;
+
+  LoxMap(Interpreter owner) {
+    this.owner = owner;
+  }
+
+  int size() {
+    return count;
+  }
+
+  Object get(Object key) {
+    if (count == 0) return null;
+    int slot = find(key, hash(key));
+    return isLive(slot) ? values[slot] : null;
+  }
+
+  boolean has(Object key) {
+    if (count == 0) return false;
+    return isLive(find(key, hash(key)));
+  }
+
+  // Returns the number of slots in the new arrays if they had to grow,
+  // or 0.
+  int put(Object key, Object value) {
+    int grown = 0;
+    if (used + 1 > keys.length * MAX_LOAD) {
+      grown = keys.length < 8 ? 8 : keys.length * 2;
+      resize(grown);
+    }
+
+    int hash = hash(key);
+    int slot = find(key, hash);
+    if (keys[slot] == null) {
+      count++;
+      used++;
+      modifications++;
+      keys[slot] = key;
+      hashes[slot] = hash;
+    } else if (keys[slot] == TOMBSTONE) {
+      count++;
+      modifications++;
+      keys[slot] = key;
+      hashes[slot] = hash;
+    }
+    values[slot] = value;
+    return grown;
+  }
+
+  boolean remove(Object key) {
+    if (count == 0) return false;
+    int slot = find(key, hash(key));
+    if (!isLive(slot)) return false;
+
+    keys[slot] = TOMBSTONE;
+    values[slot] = null;
+    count--;
+    modifications++;
+    return true;
+  }
+
+  // The slot holding the key, or else the slot to insert it into: the
+  // first tombstone passed on the way, or the empty slot that ended the
+  // probe.
+  private int find(Object key, int hash) {
+    int mask = keys.length - 1;
+    int tombstone = -1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      Object entry = keys[slot];
+      if (entry == null) {
+        return tombstone != -1 ? tombstone : slot;
+      } else if (entry == TOMBSTONE) {
+        if (tombstone == -1) tombstone = slot;
+      } else if (hashes[slot] == hash && entry.equals(key)) {
+        return slot;
+      }
+    }
+  }
+
+  // For walking the table: the number of slots, and the key in a slot or
+  // null if it holds none.
+  int capacity() {
+    return keys.length;
+  }
+
+  Object keyAt(int slot) {
+    return isLive(slot) ? keys[slot] : null;
+  }
+
+  private boolean isLive(int slot) {
+    return keys[slot] != null && keys[slot] != TOMBSTONE;
+  }
+
+  // Rehashes the live entries into new arrays, dropping the tombstones.
+  // The stored hashes are reused.
+  private void resize(int capacity) {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+    used = 0;
+    modifications++;
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      Object key = oldKeys[i];
+      if (key == null || key == TOMBSTONE) continue;
+
+      int slot = oldHashes[i] & mask;
+      while (keys[slot] != null) slot = (slot + 1) & mask;
+      keys[slot] = key;
+      values[slot] = oldValues[i];
+      hashes[slot] = oldHashes[i];
+      used++;
+    }
+  }
+
+  // Spreads the high bits down, since the table only looks at the low
+  // ones and the hashes of small whole numbers differ only in high bits.
+  private static int hash(Object key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  // Checks that a Lox value can be used as a key. Keys are stored as
+  // plain Strings, and whole numbers as Longs so they hash alike.
+  static Object key(Token bracket, Object key) {
+    if (key instanceof LoxString) return key.toString();
+    if (key instanceof Double) {
+      double value = (double)key;
+      if (value == (long)value && !(value == 0 && 1 / value < 0)) {
+        return Interpreter.integer((long)value);
+      }
+      return key;
+    }
+    if (key instanceof String || key instanceof Long) return key;
+    throw new RuntimeError(bracket, "Map key must be a string or number.");
+  }
+
+  Object get(Token name) {
+    switch (name.lexeme) {
+      case "length":
+        return (long)count;
+      case "has":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            has(key(null, arguments.get(0))));
+      case "remove":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          interpreter.checkOwner(owner, null);
+          return remove(key(null, arguments.get(0)));
+        });
+      case "keys":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            collect(interpreter, keys));
+      case "values":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            collect(interpreter, values));
+      case "forEach":
+        // Visits the entries in table order without copying them out.
+        // Adding or removing entries while the map is being walked is a
+        // runtime error, though values may be replaced.
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          LoxCallable function = NativeFunction.callback(arguments.get(0), 2);
+          Object[] entry = new Object[2];
+          int expected = modifications;
+          for (int i = 0; i < keys.length; i++) {
+            if (!isLive(i)) continue;
+            entry[0] = keys[i];
+            entry[1] = values[i];
+            interpreter.call(function, Arrays.asList(entry), null);
+            if (modifications != expected) {
+              throw NativeFunction.error(
+                  "Map changed while forEach was walking it.");
+            }
+          }
+          return null;
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  // The keys or values of the live entries, in table order.
+  private LoxList collect(Interpreter interpreter, Object[] from) {
+    interpreter.allocate(Heap.LIST + Heap.array(count), null);
+    Object[] elements = new Object[count];
+    int next = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (!isLive(i)) continue;
+      elements[next++] = from[i];
+    }
+    return new LoxList(elements, count, interpreter);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      if (!isLive(i)) continue;
+      if (builder.length() > 1) builder.append(", ");
+      builder.append(Interpreter.stringify(keys[i])).append(": ")
+             .append(Interpreter.stringify(values[i]));
+    }
+    return builder.append("}").toString();
+  }
+}
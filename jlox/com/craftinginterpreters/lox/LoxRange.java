@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+// The integers from start up to but not including end, as made by
+// range(start, end). A range holds no elements: for-in counts through it
+// directly.
+class LoxRange {
+  final long start;
+  final long end;
+
+  LoxRange(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  @Override
+  public String toString() {
+    return "<range " + start + ".." + end + ">";
+  }
+}
@@ -0,0 +1,293 @@
+package com.craftinginterpreters.lox;
+
+// A long string that shares its characters with other strings. It is a
+// range of a String, or of a StringBuilder that concatenation appends to.
+// Characters are only ever appended to a builder, never changed, so a
+// string stays the same while later strings append to the builder it
+// shares.
+//
+// Concatenating onto a string that ends where its builder ends appends in
+// place and returns a longer view of the same builder. That is always the
+// case for the loop s = s + x, which is linear instead of quadratic. If
+// the builder has grown past the string, the string is copied into a new
+// builder. Long substrings are views of the string they were taken from.
+// The flat String is made only when the value is looked at, and then
+// kept.
+//
+// Scripts can't tell a LoxString from a String: they are equal, compare
+// and print the same. Code that needs a String calls flatten().
+final class LoxString {
+  // Shorter results are plain Strings. Copying them is cheaper than
+  // sharing, and short views would keep large parents alive.
+  private static final int MIN_LENGTH = 256;
+
+  private static final double[] POWERS = new double[23];
+
+  static {
+    POWERS[0] = 1;
+    for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+  }
+
+  // A String or a StringBuilder.
+  private final CharSequence chars;
+  private final int offset;
+  private final int length;
+  private String flat;
+
+  private LoxString(CharSequence chars, int offset, int length) {
+    this.chars = chars;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  static boolean isString(Object value) {
+    return value instanceof String || value instanceof LoxString;
+  }
+
+  static Object flatten(Object value) {
+    return value instanceof LoxString ? value.toString() : value;
+  }
+
+  // Charges the characters that had to be copied to the heap.
+  static Object concat(Interpreter interpreter, Token operator,
+                       Object left, Object right) {
+    String tail = Interpreter.stringify(right);
+    if (left instanceof LoxString &&
+        ((LoxString)left).chars instanceof StringBuilder) {
+      LoxString string = (LoxString)left;
+      StringBuilder builder = (StringBuilder)string.chars;
+      synchronized (builder) {
+        if (builder.length() == string.offset + string.length) {
+          interpreter.allocate(Heap.string(tail.length()), operator);
+          builder.append(tail);
+          return new LoxString(builder, string.offset,
+                               string.length + tail.length());
+        }
+      }
+    }
+
+    String head = Interpreter.stringify(left);
+    int length = head.length() + tail.length();
+    interpreter.allocate(Heap.string(length), operator);
+    if (length < MIN_LENGTH) return head + tail;
+
+    StringBuilder builder = new StringBuilder(length * 2);
+    builder.append(head).append(tail);
+    return new LoxString(builder, 0, length);
+  }
+
+  // The characters of a String or LoxString from one index up to another,
+  // as a view if there are many.
+  static Object substring(Object string, int from, int to) {
+    if (to - from < MIN_LENGTH) return range(string, from, to);
+    if (string instanceof LoxString) {
+      LoxString view = (LoxString)string;
+      return new LoxString(view.chars, view.offset + from, to - from);
+    }
+    return new LoxString((String)string, from, to - from);
+  }
+
+  private static String range(Object string, int from, int to) {
+    if (string instanceof String) {
+      return ((String)string).substring(from, to);
+    }
+
+    LoxString view = (LoxString)string;
+    if (view.flat != null) return view.flat.substring(from, to);
+    int start = view.offset + from;
+    int end = view.offset + to;
+    if (view.chars instanceof String) {
+      return ((String)view.chars).substring(start, end);
+    }
+
+    // Only a builder can be appended to while it is read.
+    StringBuilder builder = (StringBuilder)view.chars;
+    synchronized (builder) {
+      return builder.substring(start, end);
+    }
+  }
+
+  private static int length(Object string) {
+    if (string instanceof String) return ((String)string).length();
+    return ((LoxString)string).length;
+  }
+
+  static Object get(Object string, Token name) {
+    switch (name.lexeme) {
+      case "length":
+        return (long)length(string);
+      case "charAt":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          int index = LoxList.index(null, arguments.get(0), length(string));
+          return range(string, index, index + 1);
+        });
+      case "substring":
+        return new NativeFunction(2, (interpreter, arguments) -> {
+          int from = bound(string, arguments.get(0));
+          int to = bound(string, arguments.get(1));
+          if (from > to) {
+            throw NativeFunction.error("Substring start is after its end.");
+          }
+          if (to - from < MIN_LENGTH) {
+            interpreter.allocate(Heap.string(to - from), null);
+          }
+          return substring(string, from, to);
+        });
+      case "indexOf":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            (long)string.toString().indexOf(text(arguments.get(0))));
+      case "split":
+        return new NativeFunction(1, (interpreter, arguments) ->
+            split(interpreter, string, text(arguments.get(0))));
+      case "trim":
+        return new NativeFunction(0, (interpreter, arguments) -> {
+          String text = string.toString();
+          int from = 0;
+          int to = text.length();
+          while (from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+          }
+          while (to > from && Character.isWhitespace(text.charAt(to - 1))) {
+            to--;
+          }
+          return substring(string, from, to);
+        });
+      case "toNumber":
+        return new NativeFunction(0, (interpreter, arguments) ->
+            parseNumber(string.toString()));
+      case "join":
+        return new NativeFunction(1, (interpreter, arguments) -> {
+          if (!(arguments.get(0) instanceof LoxList)) {
+            throw NativeFunction.error("Argument must be a list.");
+          }
+          String separator = string.toString();
+          StringBuilder builder = new StringBuilder();
+          boolean first = true;
+          for (Object element : ((LoxList)arguments.get(0)).values()) {
+            if (!first) builder.append(separator);
+            builder.append(Interpreter.stringify(element));
+            first = false;
+          }
+          interpreter.allocate(Heap.string(builder.length()), null);
+          return builder.toString();
+        });
+    }
+
+    throw new RuntimeError(name,
+        "Undefined property '" + name.lexeme + "'.");
+  }
+
+  // Like LoxList.index(), but allows the index one past the end.
+  private static int bound(Object string, Object bound) {
+    int length = length(string);
+    if (Interpreter.isNumber(bound) &&
+        Interpreter.toDouble(bound) == length) {
+      return length;
+    }
+    return LoxList.index(null, bound, length);
+  }
+
+  private static String text(Object argument) {
+    if (!isString(argument)) {
+      throw NativeFunction.error("Argument must be a string.");
+    }
+    return argument.toString();
+  }
+
+  // Splits on every occurrence of the separator, keeping empty pieces.
+  private static LoxList split(Interpreter interpreter, Object string,
+                               String separator) {
+    if (separator.isEmpty()) {
+      throw NativeFunction.error("Separator must not be empty.");
+    }
+
+    String text = string.toString();
+    LoxList pieces = new LoxList(new Object[8], 0, interpreter);
+    int start = 0;
+    for (;;) {
+      int end = text.indexOf(separator, start);
+      if (end == -1) end = text.length();
+      interpreter.allocate(Heap.string(end - start), null);
+      pieces.append(substring(string, start, end));
+      if (end == text.length()) break;
+      start = end + separator.length();
+    }
+    interpreter.allocate(Heap.LIST + Heap.array(pieces.size()), null);
+    return pieces;
+  }
+
+  // Parses a number in Lox syntax with an optional leading minus, or
+  // returns nil. As in source, a number without a fraction is an integer
+  // if it fits in a long, and minus zero is the double -0.
+  //
+  // With at most 15 significant digits and 22 decimals, the digits and the
+  // power of ten are exact doubles, so one division rounds correctly and
+  // nothing is allocated. Longer numbers are left to the JDK.
+  static Object parseNumber(String text) {
+    int length = text.length();
+    int i = 0;
+    boolean negative = length > 0 && text.charAt(0) == '-';
+    if (negative) i++;
+
+    long digits = 0;
+    int significant = 0;
+    int decimals = 0;
+    int start = i;
+    for (; i < length && isDigit(text.charAt(i)); i++) {
+      digits = digits * 10 + (text.charAt(i) - '0');
+      if (digits > 0) significant++;
+    }
+    if (i == start) return null;
+
+    if (i == length) {
+      // Eighteen digits always fit.
+      if (i - start > 18) {
+        try {
+          return Interpreter.integer(Long.parseLong(text));
+        } catch (NumberFormatException error) {
+          return Double.parseDouble(text);
+        }
+      }
+      if (negative && digits == 0) return -0.0;
+      return Interpreter.integer(negative ? -digits : digits);
+    }
+
+    if (text.charAt(i) == '.') {
+      int point = ++i;
+      for (; i < length && isDigit(text.charAt(i)); i++) {
+        digits = digits * 10 + (text.charAt(i) - '0');
+        if (digits > 0) significant++;
+        decimals++;
+      }
+      if (i == point) return null;
+    }
+    if (i != length) return null;
+
+    if (significant > 15 || decimals >= POWERS.length) {
+      return Double.parseDouble(text);
+    }
+    double value = digits / POWERS[decimals];
+    return negative ? -value : value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!isString(other)) return false;
+    return toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    if (flat == null) flat = range(this, 0, length);
+    return flat;
+  }
+}
@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function implemented in Java, such as a global native or a method of
+// a built-in type. Natives don't know where they were called from, so
+// they report errors without a token and the call expression fills in its
+// own.
+class NativeFunction implements LoxCallable {
+  interface Body {
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  private final int arity;
+  private final Body body;
+
+  NativeFunction(int arity, Body body) {
+    this.arity = arity;
+    this.body = body;
+  }
+
+  static RuntimeError error(String message) {
+    return new RuntimeError(null, message);
+  }
+
+  // Checks that a native's argument is a function that can be called with
+  // the given number of arguments.
+  static LoxCallable callback(Object argument, int arity) {
+    if (!(argument instanceof LoxCallable)) {
+      throw error("Argument must be a function.");
+    }
+    LoxCallable function = (LoxCallable)argument;
+    if (function.arity() != arity) {
+      throw error("Function must take " + arity +
+          (arity == 1 ? " argument." : " arguments."));
+    }
+    return function;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return body.call(interpreter, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,127 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+// The buffer that print statements write into. It is flushed to the
+// underlying stream when it fills, after every line when the session is
+// interactive, and when the run ends or an error is about to be reported,
+// so output and errors still come out in order.
+//
+// Numbers are formatted straight into the buffer: whole ones digit by
+// digit, others through a reused StringBuilder, whose append(double)
+// writes the same digits as Double.toString() without making a String.
+// Other values go through stringify(). Workers share their parent's
+// output, so printing is synchronized.
+class Output {
+  private static final int SIZE = 8192;
+  // Double.toString() switches to scientific notation from here on.
+  static final double PLAIN_LIMIT = 1e7;
+
+  private final PrintStream stream;
+  private final byte[] buffer = new byte[SIZE];
+  private final StringBuilder digits = new StringBuilder();
+  private int count = 0;
+  private boolean lineFlush = false;
+
+  Output(PrintStream stream) {
+    this.stream = stream;
+  }
+
+  synchronized void setLineFlush(boolean lineFlush) {
+    this.lineFlush = lineFlush;
+  }
+
+  synchronized void println(Object value) {
+    if (value instanceof Long && plain((long)value)) {
+      writeInteger((long)value, false);
+    } else if (value instanceof Double) {
+      writeNumber((double)value);
+    } else {
+      writeString(Interpreter.stringify(value));
+    }
+    writeByte('\n');
+    if (lineFlush) flush();
+  }
+
+  synchronized void flush() {
+    if (count > 0) {
+      stream.write(buffer, 0, count);
+      count = 0;
+    }
+    stream.flush();
+  }
+
+  private void writeNumber(double value) {
+    if (value != Math.rint(value) || Math.abs(value) >= PLAIN_LIMIT) {
+      digits.setLength(0);
+      digits.append(value);
+      // Whole numbers this large are in scientific notation, so there is
+      // no ".0" for stringify() to strip.
+      int length = digits.length();
+      if (buffer.length - count < length) drain();
+      for (int i = 0; i < length; i++) {
+        buffer[count++] = (byte)digits.charAt(i);
+      }
+      return;
+    }
+
+    writeInteger((long)value, value == 0 && 1 / value < 0);
+  }
+
+  // Compared as a range: Math.abs() would leave Long.MIN_VALUE negative.
+  static boolean plain(long value) {
+    return value > -PLAIN_LIMIT && value < PLAIN_LIMIT;
+  }
+
+  // Only called for plain values, so at most a sign and seven digits.
+  private void writeInteger(long digits, boolean negativeZero) {
+    if (buffer.length - count < 8) drain();
+    if (digits < 0 || negativeZero) {
+      buffer[count++] = '-';
+      digits = -digits;
+    }
+
+    int end = count + 1;
+    for (long rest = digits / 10; rest > 0; rest /= 10) end++;
+    count = end;
+    do {
+      buffer[--end] = (byte)('0' + digits % 10);
+      digits /= 10;
+    } while (digits > 0);
+  }
+
+  private void writeString(String text) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x80) {
+        writeBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      if (count == buffer.length) drain();
+      buffer[count++] = (byte)c;
+    }
+  }
+
+  private void writeBytes(byte[] bytes) {
+    if (bytes.length > buffer.length - count) drain();
+    if (bytes.length > buffer.length) {
+      stream.write(bytes, 0, bytes.length);
+      return;
+    }
+    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+    count += bytes.length;
+  }
+
+  private void writeByte(char c) {
+    if (count == buffer.length) drain();
+    buffer[count++] = (byte)c;
+  }
+
+  // Writes out the buffer to make room, without flushing the stream.
+  private void drain() {
+    stream.write(buffer, 0, count);
+    count = 0;
+  }
+}
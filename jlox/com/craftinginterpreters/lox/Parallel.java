@@ -0,0 +1,182 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Data-parallel map, filter and reduce over a list of Lox values. The list
+// is split in halves until the pieces are small, and every piece runs the
+// callback on a forked interpreter of its own.
+//
+// Callbacks run at the same time and share everything that existed when
+// the call started, so they may read shared variables and values but not
+// change them. Assigning to a global or a captured variable, or changing
+// a field, list, map, array, buffer or file the callback didn't create,
+// is a runtime error.
+class Parallel {
+  private static final int THRESHOLD = 256;
+
+  static List<Object> map(Interpreter interpreter, List<Object> values,
+                          LoxCallable function) {
+    return ForkJoinPool.commonPool().invoke(
+        new MapTask(interpreter, values, function, 0, values.size()));
+  }
+
+  static List<Object> filter(Interpreter interpreter, List<Object> values,
+                             LoxCallable predicate) {
+    return ForkJoinPool.commonPool().invoke(
+        new FilterTask(interpreter, values, predicate, 0, values.size()));
+  }
+
+  // The function must be associative, since pieces are combined in an
+  // unspecified grouping. The initial value is combined once, with the
+  // reduction of the whole list.
+  static Object reduce(Interpreter interpreter, List<Object> values,
+                       LoxCallable function, Object initial) {
+    if (values.isEmpty()) return initial;
+
+    Object result = ForkJoinPool.commonPool().invoke(
+        new ReduceTask(interpreter, values, function, 0, values.size()));
+    return interpreter.call(function, Arrays.asList(initial, result), null);
+  }
+
+  private static class MapTask extends RecursiveTask<List<Object>> {
+    private final Interpreter interpreter;
+    private final List<Object> values;
+    private final LoxCallable function;
+    private final int from;
+    private final int to;
+
+    MapTask(Interpreter interpreter, List<Object> values,
+            LoxCallable function, int from, int to) {
+      this.interpreter = interpreter;
+      this.values = values;
+      this.function = function;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Object> compute() {
+      if (to - from <= THRESHOLD) {
+        Interpreter worker = interpreter.fork();
+        try {
+          List<Object> result = new ArrayList<>(to - from);
+          for (int i = from; i < to; i++) {
+            result.add(worker.call(function, Arrays.asList(values.get(i)),
+                                   null));
+          }
+          return result;
+        } finally {
+          worker.detach();
+        }
+      }
+
+      int middle = (from + to) >>> 1;
+      MapTask left = new MapTask(interpreter, values, function, from, middle);
+      left.fork();
+      List<Object> right = new MapTask(interpreter, values, function,
+                                       middle, to).compute();
+      List<Object> result = left.join();
+      result.addAll(right);
+      return result;
+    }
+  }
+
+  private static class FilterTask extends RecursiveTask<List<Object>> {
+    private final Interpreter interpreter;
+    private final List<Object> values;
+    private final LoxCallable predicate;
+    private final int from;
+    private final int to;
+
+    FilterTask(Interpreter interpreter, List<Object> values,
+               LoxCallable predicate, int from, int to) {
+      this.interpreter = interpreter;
+      this.values = values;
+      this.predicate = predicate;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Object> compute() {
+      if (to - from <= THRESHOLD) {
+        Interpreter worker = interpreter.fork();
+        try {
+          List<Object> result = new ArrayList<>();
+          for (int i = from; i < to; i++) {
+            Object value = values.get(i);
+            if (Interpreter.isTruthy(
+                    worker.call(predicate, Arrays.asList(value), null))) {
+              result.add(value);
+            }
+          }
+          return result;
+        } finally {
+          worker.detach();
+        }
+      }
+
+      int middle = (from + to) >>> 1;
+      FilterTask left = new FilterTask(interpreter, values, predicate,
+                                       from, middle);
+      left.fork();
+      List<Object> right = new FilterTask(interpreter, values, predicate,
+                                          middle, to).compute();
+      List<Object> result = left.join();
+      result.addAll(right);
+      return result;
+    }
+  }
+
+  private static class ReduceTask extends RecursiveTask<Object> {
+    private final Interpreter interpreter;
+    private final List<Object> values;
+    private final LoxCallable function;
+    private final int from;
+    private final int to;
+
+    ReduceTask(Interpreter interpreter, List<Object> values,
+               LoxCallable function, int from, int to) {
+      this.interpreter = interpreter;
+      this.values = values;
+      this.function = function;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Object compute() {
+      if (to - from <= THRESHOLD) {
+        Interpreter worker = interpreter.fork();
+        try {
+          Object result = values.get(from);
+          for (int i = from + 1; i < to; i++) {
+            result = worker.call(function,
+                                 Arrays.asList(result, values.get(i)), null);
+          }
+          return result;
+        } finally {
+          worker.detach();
+        }
+      }
+
+      int middle = (from + to) >>> 1;
+      ReduceTask left = new ReduceTask(interpreter, values, function,
+                                       from, middle);
+      left.fork();
+      Object right = new ReduceTask(interpreter, values, function,
+                                    middle, to).compute();
+      Object joined = left.join();
+      Interpreter worker = interpreter.fork();
+      try {
+        return worker.call(function, Arrays.asList(joined, right), null);
+      } finally {
+        worker.detach();
+      }
+    }
+  }
+}
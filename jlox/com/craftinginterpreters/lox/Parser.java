@@ -11,11 +11,70 @@ import static com.craftinginterpreters.lox.TokenType.*;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
+  // Expressions are parsed by precedence climbing. These are the binding
+  // powers of the operators, from loosest to tightest.
+  private static final int PREC_NONE = 0;
+  private static final int PREC_COMMA = 1;
+  private static final int PREC_ASSIGNMENT = 2;
+  private static final int PREC_TERNARY = 3;
+  private static final int PREC_OR = 4;
+  private static final int PREC_AND = 5;
+  private static final int PREC_EQUALITY = 6;
+  private static final int PREC_COMPARISON = 7;
+  private static final int PREC_TERM = 8;
+  private static final int PREC_FACTOR = 9;
+  private static final int PREC_UNARY = 10;
+  private static final int PREC_CALL = 11;
+
+  // The precedence of each token type as an infix or postfix operator,
+  // indexed by ordinal. Everything else is PREC_NONE and ends the
+  // expression.
+  private static final int[] infixPrecedence =
+      new int[TokenType.values().length];
+
+  static {
+    infixPrecedence[COMMA.ordinal()]         = PREC_COMMA;
+    infixPrecedence[EQUAL.ordinal()]         = PREC_ASSIGNMENT;
+    infixPrecedence[QUESTION_MARK.ordinal()] = PREC_TERNARY;
+    infixPrecedence[OR.ordinal()]            = PREC_OR;
+    infixPrecedence[AND.ordinal()]           = PREC_AND;
+    infixPrecedence[BANG_EQUAL.ordinal()]    = PREC_EQUALITY;
+    infixPrecedence[EQUAL_EQUAL.ordinal()]   = PREC_EQUALITY;
+    infixPrecedence[GREATER.ordinal()]       = PREC_COMPARISON;
+    infixPrecedence[GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+    infixPrecedence[LESS.ordinal()]          = PREC_COMPARISON;
+    infixPrecedence[LESS_EQUAL.ordinal()]    = PREC_COMPARISON;
+    infixPrecedence[MINUS.ordinal()]         = PREC_TERM;
+    infixPrecedence[PLUS.ordinal()]          = PREC_TERM;
+    infixPrecedence[SLASH.ordinal()]         = PREC_FACTOR;
+    infixPrecedence[STAR.ordinal()]          = PREC_FACTOR;
+    infixPrecedence[LEFT_PAREN.ordinal()]    = PREC_CALL;
+    infixPrecedence[LEFT_BRACKET.ordinal()]  = PREC_CALL;
+    infixPrecedence[DOT.ordinal()]           = PREC_CALL;
+  }
+
+  private final TokenBuffer tokens;
+  private final Diagnostics diagnostics;
   private int current = 0;
+  private boolean lazy = false;
+  private int nesting = 0;
+  private boolean subclass = false;
 
-  Parser(List<Token> tokens) {
+  Parser(TokenBuffer tokens, Diagnostics diagnostics) {
     this.tokens = tokens;
+    this.diagnostics = diagnostics;
+  }
+
+  // In lazy mode the bodies of top-level functions and methods are only
+  // skipped over, and are parsed the first time they are called.
+  Parser(TokenBuffer tokens, Diagnostics diagnostics, boolean lazy) {
+    this(tokens, diagnostics);
+    this.lazy = lazy;
+  }
+
+  Parser(TokenBuffer tokens, Diagnostics diagnostics, int start) {
+    this(tokens, diagnostics);
+    this.current = start;
   }
 
   List<Stmt> parse() {
@@ -27,6 +86,26 @@ class Parser {
     return statements;
   }
 
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  // Parses the next top-level declaration. Returns null if it has a
+  // syntax error.
+  Stmt next() {
+    return declaration();
+  }
+
+  // The index of the next token to parse.
+  int position() {
+    return current;
+  }
+
+  // Parses a deferred body, starting just after its left brace.
+  List<Stmt> parseBody() {
+    return block();
+  }
+
   Expr parseExpr() {
     try {
       return expression();
@@ -61,6 +140,8 @@ class Parser {
     }
 
     consume(LEFT_BRACE, "Expect '{' before class body.");
+    boolean enclosingSubclass = subclass;
+    subclass = superclass != null;
 
     List<Stmt.Function> staticMethods = new ArrayList<>();
     List<Stmt.Function> methods = new ArrayList<>();
@@ -86,6 +167,7 @@ class Parser {
     }
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
+    subclass = enclosingSubclass;
 
     return new Stmt.Class(name, superclass, staticMethods, staticGetters, methods, getters);
   }
@@ -95,7 +177,8 @@ class Parser {
     Expr.Lambda lambda;
 
     name = consume(IDENTIFIER, "Expect " + kind + " name.");
-    lambda = lambda(kind);
+    lambda = lambda(kind, lazy && nesting == 0,
+                    kind.equals("method") && name.lexeme.equals("init"));
 
     return new Stmt.Function(name, lambda);
   }
@@ -125,8 +208,19 @@ class Parser {
   }
 
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
+    // 'in' is only a keyword here, so it stays usable as a name.
+    if (isForIn(0) || (check(VAR) && isForIn(1))) {
+      match(VAR);
+      Token name = consume(IDENTIFIER, "Expect variable name.");
+      advance();
+      Expr iterable = expression();
+      consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+      return new Stmt.ForIn(keyword, name, iterable, statement());
+    }
+
     Stmt initializer;
     if (match(SEMICOLON)) {
       initializer = null;
@@ -158,7 +252,7 @@ class Parser {
     }
 
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = new Stmt.While(keyword, condition, body);
 
     if (initializer != null) {
       body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -167,6 +261,15 @@ class Parser {
     return body;
   }
 
+  // Whether the tokens from the given distance ahead begin 'name in'.
+  private boolean isForIn(int distance) {
+    int name = current + distance;
+    return name + 1 < tokens.size() &&
+           tokens.type(name) == IDENTIFIER &&
+           tokens.type(name + 1) == IDENTIFIER &&
+           tokens.lexeme(name + 1).equals("in");
+  }
+
   private Stmt ifStatement() {
     consume(LEFT_PAREN, "Expect '(' after 'if'.");
     Expr condition = expression();
@@ -199,12 +302,13 @@ class Parser {
   }
 
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
     Stmt body = statement();
 
-    return new Stmt.While(condition, body);
+    return new Stmt.While(keyword, condition, body);
   }
 
   private Stmt breakStatement() {
@@ -222,221 +326,201 @@ class Parser {
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
 
-    while (!check(RIGHT_BRACE) && !isAtEnd()) {
-      statements.add(declaration());
+    nesting++;
+    try {
+      while (!check(RIGHT_BRACE) && !isAtEnd()) {
+        statements.add(declaration());
+      }
+    } finally {
+      nesting--;
     }
 
     consume(RIGHT_BRACE, "Expect '}' after block.");
     return statements;
   }
 
-  private Expr expression() {
-    Expr expr = assignment();
-
-    while (match(COMMA)) {
-      Token comma = previous();
-      Expr right = assignment();
-      expr = new Expr.Binary(expr, comma, right);
-    }
-
-    return expr;
-  }
-
-  private Expr assignment() {
-    Expr expr = ternary();
-
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable)expr).name;
-        return new Expr.Assign(name, value);
-      } else if (expr instanceof Expr.Get) {
-        Expr.Get get = (Expr.Get)expr;
-        return new Expr.Set(get.object, get.name, value);
+  // Skips a deferred body, from just after its left brace to just after
+  // the matching right brace. Syntax errors inside it are left for the
+  // first call.
+  private void skipBody() {
+    int depth = 1;
+    while (!isAtEnd()) {
+      TokenType type = tokens.type(current);
+      advance();
+      if (type == LEFT_BRACE) {
+        depth++;
+      } else if (type == RIGHT_BRACE && --depth == 0) {
+        return;
       }
-
-      error(equals, "Invalid assignment target.");
-    }
-
-    return expr;
-  }
-
-  private Expr ternary() {
-    Expr expr = or();
-
-    if (match(QUESTION_MARK)) {
-      Expr middle = ternary();
-      consume(COLON, "Expect ':' after '?'.");
-      Expr right = ternary();
-      expr = new Expr.Ternary(expr, middle, right);
-    }
-
-    return expr;
-  }
-
-  private Expr or() {
-    Expr expr = and();
-
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
     }
 
-    return expr;
-  }
-
-  private Expr and() {
-    Expr expr = equality();
-
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+    throw error(peek(), "Expect '}' after block.");
   }
 
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+  private Expr expression() {
+    return parsePrecedence(PREC_COMMA);
   }
 
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+  private Expr assignment() {
+    return parsePrecedence(PREC_ASSIGNMENT);
   }
 
-  private Expr factor() {
-    Expr expr = unary();
+  // Parses an expression whose operators all bind at least as tightly as
+  // the given precedence.
+  private Expr parsePrecedence(int precedence) {
+    Expr expr = prefix();
 
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
+    while (infixPrecedence[tokens.ordinal(current)] >= precedence) {
+      advance();
+      expr = infix(tokens.type(current - 1), expr);
     }
 
     return expr;
   }
 
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
-    }
-
-    return call();
-  }
+  private Expr prefix() {
+    switch (tokens.type(current)) {
+      case FALSE:
+        advance();
+        return new Expr.Literal(false);
+      case TRUE:
+        advance();
+        return new Expr.Literal(true);
+      case NIL:
+        advance();
+        return new Expr.Literal(null);
+      case NUMBER:
+      case STRING:
+        advance();
+        return new Expr.Literal(tokens.literal(current - 1));
+      case SUPER: {
+        Token keyword = advance();
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER,
+            "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
+      }
+      case THIS:
+        return new Expr.This(advance());
+      case IDENTIFIER:
+        return new Expr.Variable(advance());
+      case LEFT_PAREN: {
+        advance();
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
+      }
+      case FUN:
+        advance();
+        return lambda("lambda");
+      case LEFT_BRACKET: {
+        Token bracket = advance();
+        List<Expr> elements = new ArrayList<>();
+        if (!check(RIGHT_BRACKET)) {
+          do {
+            elements.add(assignment());
+          } while (match(COMMA));
+        }
+        consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+        return new Expr.ListLiteral(bracket, elements);
+      }
+      case BANG:
+      case MINUS: {
+        Token operator = advance();
+        Expr right = parsePrecedence(PREC_UNARY);
+        return new Expr.Unary(operator, right);
+      }
 
-  private Expr call() {
-    Expr expr = primary();
+      // A binary operator with no left operand. Its right operand is
+      // parsed anyway so the error is reported at the operator.
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        throw missingOperand(PREC_COMPARISON);
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        throw missingOperand(PREC_TERM);
+      case PLUS:
+        throw missingOperand(PREC_FACTOR);
+      case SLASH:
+      case STAR:
+        throw missingOperand(PREC_UNARY);
+
+      default:
+        throw error(peek(), "Expect expression.");
+    }
+  }
+
+  private ParseError missingOperand(int precedence) {
+    Token operator = advance();
+    parsePrecedence(precedence);
+    return error(operator, "Expect operand.");
+  }
+
+  // Parses the rest of an infix or postfix expression whose operator was
+  // just consumed.
+  private Expr infix(TokenType type, Expr left) {
+    switch (type) {
+      case EQUAL: {
+        Token equals = previous();
+        Expr value = parsePrecedence(PREC_ASSIGNMENT);
+
+        if (left instanceof Expr.Variable) {
+          Token name = ((Expr.Variable)left).name;
+          return new Expr.Assign(name, value);
+        } else if (left instanceof Expr.Get) {
+          Expr.Get get = (Expr.Get)left;
+          return new Expr.Set(get.object, get.name, value);
+        } else if (left instanceof Expr.Index) {
+          Expr.Index index = (Expr.Index)left;
+          return new Expr.SetIndex(index.object, index.bracket, index.index,
+                                   value);
+        }
 
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else if (match(DOT)) {
+        error(equals, "Invalid assignment target.");
+        return left;
+      }
+      case QUESTION_MARK: {
+        Expr middle = parsePrecedence(PREC_TERNARY);
+        consume(COLON, "Expect ':' after '?'.");
+        Expr right = parsePrecedence(PREC_TERNARY);
+        return new Expr.Ternary(left, middle, right);
+      }
+      case OR:
+      case AND: {
+        Token operator = previous();
+        Expr right = parsePrecedence(infixPrecedence[type.ordinal()] + 1);
+        return new Expr.Logical(left, operator, right);
+      }
+      case LEFT_PAREN:
+        return finishCall(left);
+      case LEFT_BRACKET: {
+        Token bracket = previous();
+        Expr index = assignment();
+        consume(RIGHT_BRACKET, "Expect ']' after index.");
+        return new Expr.Index(left, bracket, index);
+      }
+      case DOT: {
         Token name = consume(IDENTIFIER,
             "Expect property name after '.'.");
-        expr = new Expr.Get(expr, name);
-      } else {
-        break;
+        return new Expr.Get(left, name);
+      }
+      default: {
+        // The remaining operators are left-associative binaries.
+        Token operator = previous();
+        Expr right = parsePrecedence(infixPrecedence[type.ordinal()] + 1);
+        return new Expr.Binary(left, operator, right);
       }
     }
-
-    return expr;
   }
 
-  private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
-    if (match(NIL)) return new Expr.Literal(null);
-
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
-    }
-
-    if (match(SUPER)) {
-      Token keyword = previous();
-      consume(DOT, "Expect '.' after 'super'.");
-      Token method = consume(IDENTIFIER,
-          "Expect superclass method name.");
-      return new Expr.Super(keyword, method);
-    }
-
-    if (match(THIS)) return new Expr.This(previous());
-
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
-
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
-    }
-
-    if (match(FUN)) {
-      return lambda("lambda");
-    }
-
-    if (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      comparison();
-      throw error(operator, "Expect operand.");
-    }
-
-    if (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      term();
-      throw error(operator, "Expect operand.");
-    }
-
-    if (match(PLUS)) {
-      Token operator = previous();
-      factor();
-      throw error(operator, "Expect operand.");
-    }
-
-    if (match(SLASH, STAR)) {
-      Token operator = previous();
-      unary();
-      throw error(operator, "Expect operand.");
-    }
-
-    throw error(peek(), "Expect expression.");
+  private Expr.Lambda lambda(String kind) {
+    return lambda(kind, false, false);
   }
 
-  private Expr.Lambda lambda(String kind) {
+  private Expr.Lambda lambda(String kind, boolean deferred,
+                            boolean initializer) {
     consume(LEFT_PAREN, "Expect '(' before parameters.");
     List<Token> parameters = new ArrayList<>();
     if (!check(RIGHT_PAREN)) {
@@ -452,6 +536,16 @@ class Parser {
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+    if (deferred) {
+      LazyBody body = new LazyBody(tokens, diagnostics, current - 1,
+                                   kind.equals("method"), initializer,
+                                   subclass);
+      skipBody();
+      Expr.Lambda lambda = new Expr.Lambda(parameters, body);
+      body.lambda = lambda;
+      return lambda;
+    }
+
     List<Stmt> body = block();
     return new Expr.Lambda(parameters, body);
   }
@@ -473,15 +567,10 @@ class Parser {
     return new Expr.Call(callee, paren, arguments);
   }
 
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
-    }
-
-    return false;
+  private boolean match(TokenType type) {
+    if (!check(type)) return false;
+    advance();
+    return true;
   }
 
   private Token consume(TokenType type, String message) {
@@ -492,13 +581,14 @@ class Parser {
 
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    return peek().type == type;
+    return tokens.type(current) == type;
   }
 
   private boolean checkNext(TokenType type) {
-    Token next = peekNext();
-    if (next.type == EOF) return false;
-    return next.type == type;
+    if (isAtEnd()) return false;
+    TokenType next = tokens.type(current + 1);
+    if (next == EOF) return false;
+    return next == type;
   }
 
   private Token advance() {
@@ -507,24 +597,19 @@ class Parser {
   }
 
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.type(current) == EOF;
   }
 
   private Token peek() {
     return tokens.get(current);
   }
 
-  private Token peekNext() {
-    if (isAtEnd()) return peek();
-    return tokens.get(current + 1);
-  }
-
   private Token previous() {
     return tokens.get(current - 1);
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    diagnostics.error(token, message);
     return new ParseError();
   }
 
@@ -532,9 +617,9 @@ class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON) return;
+      if (tokens.type(current - 1) == SEMICOLON) return;
 
-      switch (peek().type) {
+      switch (tokens.type(current)) {
         case CLASS:
         case FUN:
         case VAR:
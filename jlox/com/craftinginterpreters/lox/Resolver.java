@@ -1,23 +1,22 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
-  private final Stack<Map<Token, VariableStatus>> scopes = new Stack<>();
-  private final Stack<Map<Token, Integer>> slots = new Stack<>();
-  private final Stack<Integer> slotNo = new Stack<>();
+  // The locals of every open scope, innermost last. A scope is the run of
+  // locals from its start to the next scope's start, and is searched by
+  // symbol ID from the end, like clox does.
+  private Local[] locals = new Local[64];
+  private int localCount = 0;
+  private int[] scopeStart = new int[16];
+  private int[] nextSlot = new int[16];
+  private int scopeCount = 0;
+  private final Diagnostics diagnostics;
   private boolean inLoop = false;
   private FunctionType currentFunction = FunctionType.NONE;
   private ClassType currentClass = ClassType.NONE;
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
-
   private enum VariableStatus {
     DECLARED,
     INITIALIZING,
@@ -25,6 +24,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     USED
   }
 
+  private static class Local {
+    final Token name;
+    final int symbol;
+    VariableStatus status;
+    int slot = -1;
+
+    Local(Token name, int symbol, VariableStatus status) {
+      this.name = name;
+      this.symbol = symbol;
+      this.status = status;
+    }
+  }
+
   private enum FunctionType {
     NONE,
     LAMBDA,
@@ -39,6 +51,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
+  Resolver(Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
@@ -50,7 +66,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitBreakStmt(Stmt.Break stmt) {
     if (!inLoop) {
-      Lox.error(stmt.keyword, "Can't break outside of loop.");
+      diagnostics.error(stmt.keyword, "Can't break outside of loop.");
     }
 
     return null;
@@ -61,18 +77,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     ClassType enclosingClass = currentClass;
     currentClass = ClassType.CLASS;
 
-    declare(stmt.name);
-    define(stmt.name);
+    Local local = declare(stmt.name);
+    define(local);
 
-    if (!slotNo.isEmpty()) {
-      int slot = nextSlotNo();
-      slots.peek().put(stmt.name, slot);
-      interpreter.resolve(stmt, slot);
+    if (local != null) {
+      local.slot = nextSlotNo();
+      stmt.slot = local.slot;
     }
 
     if (stmt.superclass != null &&
         stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-      Lox.error(stmt.superclass.name,
+      diagnostics.error(stmt.superclass.name,
           "A class can't inherit from itself.");
     }
 
@@ -83,15 +98,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null) {
       beginScope();
-      Token superToken = new Token(TokenType.SUPER, "super", 0, 0);
-      scopes.peek().put(superToken, VariableStatus.USED);
-      slots.peek().put(superToken, nextSlotNo());
+      defineKeyword(TokenType.SUPER, SymbolTable.SUPER);
     }
 
     beginScope();
-    Token thisToken = new Token(TokenType.THIS, "this", 0, 0);
-    scopes.peek().put(thisToken, VariableStatus.USED);
-    slots.peek().put(thisToken, nextSlotNo());
+    defineKeyword(TokenType.THIS, SymbolTable.THIS);
 
     for (Stmt.Function method : stmt.staticMethods) {
       FunctionType declaration = FunctionType.METHOD;
@@ -126,13 +137,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
-    define(stmt.name);
+    Local local = declare(stmt.name);
+    define(local);
 
-    if (!slotNo.isEmpty()) {
-      int slot = nextSlotNo();
-      slots.peek().put(stmt.name, slot);
-      interpreter.resolve(stmt, slot);
+    if (local != null) {
+      local.slot = nextSlotNo();
+      stmt.slot = local.slot;
     }
 
     resolveFunction(stmt.lambda, FunctionType.FUNCTION);
@@ -156,12 +166,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      diagnostics.error(stmt.keyword, "Can't return from top-level code.");
     }
 
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword,
+        diagnostics.error(stmt.keyword,
             "Can't return a value from an initializer.");
       }
 
@@ -173,18 +183,38 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    Local local = declare(stmt.name);
     if (stmt.initializer != null) {
-      if (!slotNo.isEmpty()) {
-        int slot = nextSlotNo();
-        slots.peek().put(stmt.name, slot);
-        interpreter.resolve(stmt, slot);
+      if (local != null) {
+        local.slot = nextSlotNo();
+        stmt.slot = local.slot;
+        local.status = VariableStatus.INITIALIZING;
       }
-      initialize(stmt.name, stmt.initializer);
+      resolve(stmt.initializer);
+      define(local);
     }
     return null;
   }
 
+  @Override
+  public Void visitForInStmt(Stmt.ForIn stmt) {
+    resolve(stmt.iterable);
+
+    // The loop variable lives in a scope of its own around the body.
+    beginScope();
+    Local local = declare(stmt.name);
+    local.slot = nextSlotNo();
+    stmt.slot = local.slot;
+    define(local);
+
+    boolean isInLoop = inLoop;
+    inLoop = true;
+    resolve(stmt.body);
+    inLoop = isInLoop;
+    endScope();
+    return null;
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
     boolean isInLoop = inLoop;
@@ -198,10 +228,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
-    int index = resolveLocal(expr, expr.name);
-    if (index != -1) {
-      defineAt(index, expr.name);
-    }
+    define(resolveLocal(expr, expr.name));
     return null;
   }
 
@@ -235,12 +262,27 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
   @Override
   public Void visitLambdaExpr(Expr.Lambda expr) {
     resolveFunction(expr, FunctionType.LAMBDA);
     return null;
   }
 
+  @Override
+  public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+    for (Expr element : expr.elements) {
+      resolve(element);
+    }
+    return null;
+  }
+
   @Override
   public Void visitLiteralExpr(Expr.Literal expr) {
     return null;
@@ -268,13 +310,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    resolve(expr.value);
+    resolve(expr.object);
+    resolve(expr.index);
+    return null;
+  }
+
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
+      diagnostics.error(expr.keyword,
           "Can't use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword,
+      diagnostics.error(expr.keyword,
           "Can't use 'super' in a class with no superclass.");
     }
 
@@ -285,7 +335,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
+      diagnostics.error(expr.keyword,
           "Can't use 'this' outside of a class.");
       return null;
     }
@@ -302,14 +352,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    int index = resolveLocal(expr, expr.name);
-    if (index != -1) {
-      Map<Token, VariableStatus> scope = scopes.get(index);
-      if (scope.get(expr.name) == VariableStatus.INITIALIZING) {
-        Lox.error(expr.name,
+    Local local = resolveLocal(expr, expr.name);
+    if (local != null) {
+      if (local.status == VariableStatus.INITIALIZING) {
+        diagnostics.error(expr.name,
             "Can't read local variable in its own initializer.");
       }
-      scope.put(expr.name, VariableStatus.USED);
+      local.status = VariableStatus.USED;
     }
     return null;
   }
@@ -320,52 +369,75 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
   }
 
-  private int resolveLocal(Expr expr, Token name) {
-    // System.err.println("find");
-    // System.err.println(name);
-    for (int i = scopes.size() - 1; i >= 0; i--) {
-      Map<Token, VariableStatus> scope = scopes.get(i);
-      // System.err.println("get");
-      // for (var b : scope.entrySet()) {
-        // System.err.println(b);
-      // }
-      if (scope.containsKey(name)) {
-        int depth = scopes.size() - 1 - i;
-        int slot;
-        if (scope.get(name) == VariableStatus.DECLARED) {
-          slot = nextSlotNo(i);
-          slots.get(i).put(name, slot);
-        } else {
-          // for (var b : slots.get(i).entrySet()) {
-            // System.err.println(b);
-          // }
-          // System.err.println(slots);
-          slot = slots.get(i).get(name);
+  private Local resolveLocal(Expr expr, Token name) {
+    int scope = scopeCount - 1;
+    for (int i = localCount - 1; i >= 0; i--) {
+      while (i < scopeStart[scope]) scope--;
+
+      Local local = locals[i];
+      if (local.symbol == name.symbol) {
+        // A variable declared without an initializer gets its slot when
+        // it is first used or assigned.
+        if (local.status == VariableStatus.DECLARED) {
+          local.slot = nextSlot[scope]++;
         }
-        interpreter.resolve(expr, depth, slot);
-        return i;
+        expr.depth = scopeCount - 1 - scope;
+        expr.slot = local.slot;
+        return local;
       }
     }
 
-    return -1;
+    return null;
+  }
+
+  // Resolves the body of a lazily parsed function or method the first time
+  // it is called. Only top-level declarations are parsed lazily, so the
+  // only enclosing scopes to recreate are those of a method's class.
+  void resolve(LazyBody body) {
+    if (body.method) {
+      currentClass = body.subclass ? ClassType.SUBCLASS : ClassType.CLASS;
+      if (body.subclass) {
+        beginScope();
+        defineKeyword(TokenType.SUPER, SymbolTable.SUPER);
+      }
+
+      beginScope();
+      defineKeyword(TokenType.THIS, SymbolTable.THIS);
+    }
+
+    FunctionType type = FunctionType.FUNCTION;
+    if (body.initializer) {
+      type = FunctionType.INITIALIZER;
+    } else if (body.method) {
+      type = FunctionType.METHOD;
+    }
+    resolveFunction(body.lambda, type, body);
   }
 
   private void resolveFunction(Expr.Lambda lambda, FunctionType type) {
+    // Lazy bodies are resolved when they are first called.
+    if (lambda.body instanceof LazyBody) return;
+
+    resolveFunction(lambda, type, lambda.body);
+  }
+
+  private void resolveFunction(Expr.Lambda lambda, FunctionType type,
+                               List<Stmt> body) {
     FunctionType enclosingFunction = currentFunction;
     currentFunction = type;
 
     beginScope();
     for (Token param : lambda.params) {
-      declare(param);
-      define(param);
-      slots.peek().put(param, nextSlotNo());
+      Local local = declare(param);
+      define(local);
+      local.slot = nextSlotNo();
     }
-    resolve(lambda.body);
+    resolve(body);
     endScope();
     currentFunction = enclosingFunction;
   }
 
-  private void resolve(Stmt stmt) {
+  void resolve(Stmt stmt) {
     stmt.accept(this);
   }
 
@@ -374,69 +446,71 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private void beginScope() {
-    scopes.push(new HashMap<Token, VariableStatus>());
-    slots.push(new HashMap<Token, Integer>());
-    slotNo.push(0);
+    if (scopeCount == scopeStart.length) {
+      scopeStart = Arrays.copyOf(scopeStart, scopeCount * 2);
+      nextSlot = Arrays.copyOf(nextSlot, scopeCount * 2);
+    }
+
+    scopeStart[scopeCount] = localCount;
+    nextSlot[scopeCount] = 0;
+    scopeCount++;
   }
 
   private void endScope() {
-    Map<Token, VariableStatus> scope = scopes.pop();
-    for (Map.Entry<Token, VariableStatus> entry : scope.entrySet()) {
-      if (entry.getValue() != VariableStatus.USED) {
-        Lox.error(entry.getKey(),
+    scopeCount--;
+    int start = scopeStart[scopeCount];
+    for (int i = start; i < localCount; i++) {
+      if (locals[i].status != VariableStatus.USED) {
+        diagnostics.error(locals[i].name,
             "Unused local variable.");
       }
+      locals[i] = null;
     }
-    slots.pop();
-    slotNo.pop();
+    localCount = start;
   }
 
-  private void declare(Token name) {
-    if (scopes.isEmpty()) return;
+  // Returns null for a global.
+  private Local declare(Token name) {
+    if (scopeCount == 0) return null;
 
-    Map<Token, VariableStatus> scope = scopes.peek();
-    if (scope.containsKey(name)) {
-      Lox.error(name,
-          "Already a variable with this name in this scope.");
+    for (int i = localCount - 1; i >= scopeStart[scopeCount - 1]; i--) {
+      Local local = locals[i];
+      if (local.symbol == name.symbol) {
+        diagnostics.error(name,
+            "Already a variable with this name in this scope.");
+        local.status = VariableStatus.DECLARED;
+        return local;
+      }
     }
 
-    scope.put(name, VariableStatus.DECLARED);
+    return addLocal(name, name.symbol, VariableStatus.DECLARED);
   }
 
-  private void initialize(Token name, Expr initializer) {
-    if (!scopes.isEmpty()) {
-      Map<Token, VariableStatus> scope = scopes.peek();
-      scope.put(name, VariableStatus.INITIALIZING);
+  private void define(Local local) {
+    if (local == null) return;
+    if (local.status != VariableStatus.USED) {
+      local.status = VariableStatus.DEFINED;
     }
-
-    resolve(initializer);
-    define(name);
   }
 
-  private void define(Token name) {
-    if (scopes.isEmpty()) return;
-    Map<Token, VariableStatus> scope = scopes.peek();
-    if (scope.get(name) != VariableStatus.USED) {
-      scope.put(name, VariableStatus.DEFINED);
-    }
+  // Declares 'this' or 'super' in the innermost scope.
+  private void defineKeyword(TokenType type, int symbol) {
+    Token keyword = new Token(type, type == TokenType.THIS ? "this" : "super",
+                              null, 0);
+    addLocal(keyword, symbol, VariableStatus.USED).slot = nextSlotNo();
   }
 
-  private void defineAt(int index, Token name) {
-    Map<Token, VariableStatus> scope = scopes.get(index);
-    if (scope.get(name) != VariableStatus.USED) {
-      scope.put(name, VariableStatus.DEFINED);
+  private Local addLocal(Token name, int symbol, VariableStatus status) {
+    if (localCount == locals.length) {
+      locals = Arrays.copyOf(locals, localCount * 2);
     }
-  }
 
-  private int nextSlotNo() {
-    int slot = slotNo.pop();
-    slotNo.push(slot + 1);
-    return slot;
+    Local local = new Local(name, symbol, status);
+    locals[localCount++] = local;
+    return local;
   }
 
-  private int nextSlotNo(int index) {
-    int slot = slotNo.get(index);
-    slotNo.set(index, slot + 1);
-    return slot;
+  private int nextSlotNo() {
+    return nextSlot[scopeCount - 1]++;
   }
 }
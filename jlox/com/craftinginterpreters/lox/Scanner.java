@@ -1,54 +1,57 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+// Scans UTF-8 source bytes. Everything outside of string literals and
+// comments is ASCII, so the scanner reads bytes directly and only string
+// contents and lexemes are ever decoded. The source may be a mapped file.
 class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private final ByteBuffer source;
+  private final int length;
   private int start = 0;
   private int current = 0;
   private int line = 1;
 
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and",    AND);
-    keywords.put("break",  BREAK);
-    keywords.put("class",  CLASS);
-    keywords.put("else",   ELSE);
-    keywords.put("false",  FALSE);
-    keywords.put("for",    FOR);
-    keywords.put("fun",    FUN);
-    keywords.put("if",     IF);
-    keywords.put("nil",    NIL);
-    keywords.put("or",     OR);
-    keywords.put("print",  PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super",  SUPER);
-    keywords.put("this",   THIS);
-    keywords.put("true",   TRUE);
-    keywords.put("var",    VAR);
-    keywords.put("while",  WHILE);
-  }
-
-  Scanner(String source) {
+  private final TokenBuffer tokens;
+  private final Diagnostics diagnostics;
+
+  private static final double[] powersOfTen = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+    1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  Scanner(String source, Diagnostics diagnostics) {
+    this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)),
+         diagnostics);
+  }
+
+  Scanner(ByteBuffer source, Diagnostics diagnostics) {
+    this(source, diagnostics, 0, source.limit(), 1);
+  }
+
+  // Scans only the bytes from start to end, which begin on the given line.
+  // Token offsets are still relative to the whole source.
+  Scanner(ByteBuffer source, Diagnostics diagnostics, int start, int end,
+          int line) {
     this.source = source;
+    this.length = end;
+    this.current = start;
+    this.line = line;
+    this.tokens = new TokenBuffer(source);
+    this.diagnostics = diagnostics;
   }
 
-  List<Token> scanTokens() {
+  TokenBuffer scanTokens() {
     while (!isAtEnd()) {
       // We are at the beginning of the next lexeme.
       start = current;
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, line));
+    tokens.add(EOF, current, 0, line);
     return tokens;
   }
 
@@ -59,6 +62,8 @@ class Scanner {
       case ')': addToken(RIGHT_PAREN); break;
       case '{': addToken(LEFT_BRACE); break;
       case '}': addToken(RIGHT_BRACE); break;
+      case '[': addToken(LEFT_BRACKET); break;
+      case ']': addToken(RIGHT_BRACKET); break;
       case ',': addToken(COMMA); break;
       case '.': addToken(DOT); break;
       case '-': addToken(MINUS); break;
@@ -105,7 +110,9 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          // Report a multi-byte character once.
+          while ((peek() & 0xc0) == 0x80) advance();
+          diagnostics.error(line, start, "Unexpected character.");
         }
         break;
    }
@@ -116,9 +123,12 @@ class Scanner {
       while (peek() != '\n' && !isAtEnd()) advance();
     } else {
       advance();
-      while ((peek() != '*' || peekNext() != '/') && !isAtEnd()) advance();
+      while ((peek() != '*' || peekNext() != '/') && !isAtEnd()) {
+        if (peek() == '\n') line++;
+        advance();
+      }
       if (isAtEnd()) {
-        Lox.error(line, "Unterminated block comment");
+        diagnostics.error(line, current, "Unterminated block comment");
       } else {
         advance();
         advance();
@@ -129,10 +139,56 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+    addToken(identifierType());
+  }
+
+  // Recognizes keywords in place with a trie over their spelling.
+  private TokenType identifierType() {
+    switch (charAt(start)) {
+      case 'a': return checkKeyword(1, "nd", AND);
+      case 'b': return checkKeyword(1, "reak", BREAK);
+      case 'c': return checkKeyword(1, "lass", CLASS);
+      case 'e': return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (charAt(start + 1)) {
+            case 'a': return checkKeyword(2, "lse", FALSE);
+            case 'o': return checkKeyword(2, "r", FOR);
+            case 'u': return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i': return checkKeyword(1, "f", IF);
+      case 'n': return checkKeyword(1, "il", NIL);
+      case 'o': return checkKeyword(1, "r", OR);
+      case 'p': return checkKeyword(1, "rint", PRINT);
+      case 'r': return checkKeyword(1, "eturn", RETURN);
+      case 's': return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (charAt(start + 1)) {
+            case 'h': return checkKeyword(2, "is", THIS);
+            case 'r': return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v': return checkKeyword(1, "ar", VAR);
+      case 'w': return checkKeyword(1, "hile", WHILE);
+    }
+
+    return IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) return IDENTIFIER;
+
+    for (int i = 0; i < rest.length(); i++) {
+      if (charAt(start + offset + i) != rest.charAt(i)) {
+        return IDENTIFIER;
+      }
+    }
+
+    return type;
   }
 
   private void number() {
@@ -144,10 +200,52 @@ class Scanner {
       advance();
 
       while (isDigit(peek())) advance();
+      addToken(NUMBER, parseNumber());
+      return;
+    }
+
+    addToken(NUMBER, parseInteger());
+  }
+
+  // Literals without a fractional part are integers, unless they don't
+  // fit in a long. Eighteen digits always fit.
+  private Object parseInteger() {
+    if (current - start > 18) {
+      String text = tokens.intern(start, current);
+      try {
+        return Long.parseLong(text);
+      } catch (NumberFormatException error) {
+        return Double.parseDouble(text);
+      }
     }
 
-    addToken(NUMBER,
-        Double.parseDouble(source.substring(start, current)));
+    long value = 0;
+    for (int i = start; i < current; i++) {
+      value = value * 10 + (charAt(i) - '0');
+    }
+    return value;
+  }
+
+  // Short literals are exact as an integer mantissa scaled by a power of
+  // ten, and one division of two exact doubles is correctly rounded, so
+  // they can skip the general parser.
+  private double parseNumber() {
+    if (current - start > powersOfTen.length) {
+      return Double.parseDouble(tokens.intern(start, current));
+    }
+
+    long mantissa = 0;
+    int scale = 0;
+    for (int i = start; i < current; i++) {
+      char c = charAt(i);
+      if (c == '.') {
+        scale = current - i - 1;
+      } else {
+        mantissa = mantissa * 10 + (c - '0');
+      }
+    }
+
+    return mantissa / powersOfTen[scale];
   }
 
   private void string() {
@@ -157,7 +255,7 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      diagnostics.error(line, current, "Unterminated string.");
       return;
     }
 
@@ -165,13 +263,13 @@ class Scanner {
     advance();
 
     // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
+    String value = tokens.intern(start + 1, current - 1);
     addToken(STRING, value);
   }
 
   private boolean match(char expected) {
     if (isAtEnd()) return false;
-    if (source.charAt(current) != expected) return false;
+    if (charAt(current) != expected) return false;
 
     current++;
     return true;
@@ -179,12 +277,12 @@ class Scanner {
 
   private char peek() {
     if (isAtEnd()) return '\0';
-    return source.charAt(current);
+    return charAt(current);
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) return '\0';
-    return source.charAt(current + 1);
+    if (current + 1 >= length) return '\0';
+    return charAt(current + 1);
   }
 
   private boolean isAlpha(char c) {
@@ -202,19 +300,22 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= length;
+  }
+
+  private char charAt(int index) {
+    return (char)(source.get(index) & 0xff);
   }
 
   private char advance() {
-    return source.charAt(current++);
+    return charAt(current++);
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    tokens.add(type, start, current - start, line);
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(type, start, current - start, line, literal);
   }
 }
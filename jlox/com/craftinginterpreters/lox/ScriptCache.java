@@ -0,0 +1,688 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Compiled scripts, cached on disk so running an unchanged script again
+// skips scanning, parsing and resolving. A .loxc file holds the resolved
+// top-level statements with their depth and slot, and a constant pool of
+// every lexeme and string literal they use.
+//
+// A cache file is named after a hash of the source and the format version,
+// so editing the script or upgrading the interpreter simply misses. Files
+// are only written for scripts that ran to the end without errors.
+//
+// The header records the length and CRC-32 of the rest of the file, and a
+// file is checked and decoded in full before any of it runs. A damaged
+// file is treated as a miss.
+class ScriptCache {
+  // Bump this whenever the AST or the encoding changes.
+  private static final int VERSION = 5;
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+
+  private static final TokenType[] types = TokenType.values();
+
+  // Node tags. Zero is a missing node.
+  private static final int ASSIGN = 1;
+  private static final int BINARY = 2;
+  private static final int CALL = 3;
+  private static final int GET = 4;
+  private static final int GROUPING = 5;
+  private static final int LAMBDA = 6;
+  private static final int LITERAL = 7;
+  private static final int LOGICAL = 8;
+  private static final int SET = 9;
+  private static final int SUPER = 10;
+  private static final int TERNARY = 11;
+  private static final int THIS = 12;
+  private static final int UNARY = 13;
+  private static final int VARIABLE = 14;
+  private static final int INDEX = 15;
+  private static final int LIST_LITERAL = 16;
+  private static final int SET_INDEX = 17;
+
+  private static final int BLOCK = 1;
+  private static final int BREAK = 2;
+  private static final int CLASS = 3;
+  private static final int EXPRESSION = 4;
+  private static final int FUNCTION = 5;
+  private static final int IF = 6;
+  private static final int PRINT = 7;
+  private static final int RETURN = 8;
+  private static final int VAR = 9;
+  private static final int WHILE = 10;
+  private static final int FOR_IN = 11;
+
+  // Literal values.
+  private static final int NIL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int NUMBER = 3;
+  private static final int STRING = 4;
+  private static final int INTEGER = 5;
+
+  // The directory comes from JLOX_CACHE, then XDG_CACHE_HOME, then
+  // ~/.cache. A relative one is resolved against the run's working
+  // directory.
+  static Path locate(ByteBuffer source, Path directory) {
+    String dir = System.getenv("JLOX_CACHE");
+    if (dir == null) {
+      String xdg = System.getenv("XDG_CACHE_HOME");
+      dir = xdg != null ? Paths.get(xdg, "jlox").toString()
+                        : Paths.get(System.getProperty("user.home"),
+                                    ".cache", "jlox").toString();
+    }
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new AssertionError(error);
+    }
+    digest.update(ByteBuffer.allocate(4).putInt(VERSION).flip());
+    digest.update(source.duplicate());
+
+    StringBuilder name = new StringBuilder();
+    for (byte b : digest.digest()) {
+      name.append(String.format("%02x", b & 0xff));
+    }
+    return directory.resolve(dir).resolve(name.append(".loxc").toString());
+  }
+
+  static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Map<String, Integer> pool = new HashMap<>();
+    private final List<String> constants = new ArrayList<>();
+    private byte[] bytes = new byte[4096];
+    private int length = 0;
+    private int count = 0;
+
+    void add(Stmt statement) {
+      write(statement);
+      count++;
+    }
+
+    // Whether both wrote the same statements, down to their tokens'
+    // lines and offsets.
+    boolean sameAs(Writer other) {
+      return count == other.count && constants.equals(other.constants) &&
+             Arrays.equals(bytes, 0, length, other.bytes, 0, other.length);
+    }
+
+    // Writes to a temporary file first, so a reader never sees half a
+    // cache file. The temporary file is deleted if anything fails,
+    // including the move.
+    void commit(Path path) throws IOException {
+      Files.createDirectories(path.getParent());
+      Path temp = Files.createTempFile(path.getParent(), "jlox", ".tmp");
+      boolean moved = false;
+      try {
+        try (OutputStream out = Files.newOutputStream(temp)) {
+          ByteArrayOutputStream pool = new ByteArrayOutputStream();
+          DataOutputStream data = new DataOutputStream(pool);
+          data.writeInt(constants.size());
+          for (String constant : constants) {
+            byte[] utf8 = constant.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(utf8.length);
+            data.write(utf8);
+          }
+          data.writeInt(count);
+          data.writeInt(length);
+
+          CRC32 crc = new CRC32();
+          crc.update(pool.toByteArray());
+          crc.update(bytes, 0, length);
+
+          ByteBuffer header = ByteBuffer.allocate(16);
+          header.putInt(MAGIC).putInt(VERSION)
+                .putInt(pool.size() + length).putInt((int)crc.getValue());
+          out.write(header.array());
+          pool.writeTo(out);
+          out.write(bytes, 0, length);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        moved = true;
+      } finally {
+        if (!moved) Files.deleteIfExists(temp);
+      }
+    }
+
+    private void write(Expr expr) {
+      if (expr == null) {
+        writeByte(0);
+        return;
+      }
+      expr.accept(this);
+      writeInt(expr.depth);
+      writeInt(expr.slot);
+    }
+
+    private void write(Stmt stmt) {
+      if (stmt == null) {
+        writeByte(0);
+        return;
+      }
+      stmt.accept(this);
+      writeInt(stmt.slot);
+    }
+
+    private void writeStatements(List<? extends Stmt> statements) {
+      writeInt(statements.size());
+      for (Stmt statement : statements) write(statement);
+    }
+
+    private void write(Token token) {
+      writeByte(token.type.ordinal());
+      writeString(token.lexeme);
+      writeInt(token.line);
+      writeInt(token.start);
+    }
+
+    private void writeString(String string) {
+      Integer index = pool.get(string);
+      if (index == null) {
+        index = constants.size();
+        constants.add(string);
+        pool.put(string, index);
+      }
+      writeInt(index);
+    }
+
+    private void writeStrings(Set<String> strings) {
+      writeInt(strings.size());
+      for (String string : strings) writeString(string);
+    }
+
+    private void writeByte(int value) {
+      ensure(1);
+      bytes[length++] = (byte)value;
+    }
+
+    private void writeInt(int value) {
+      ensure(4);
+      bytes[length++] = (byte)(value >>> 24);
+      bytes[length++] = (byte)(value >>> 16);
+      bytes[length++] = (byte)(value >>> 8);
+      bytes[length++] = (byte)value;
+    }
+
+    private void writeDouble(double value) {
+      writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    private void writeLong(long value) {
+      writeInt((int)(value >>> 32));
+      writeInt((int)value);
+    }
+
+    private void ensure(int needed) {
+      if (length + needed > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2,
+                                              length + needed));
+      }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      writeByte(BLOCK);
+      writeStatements(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+      writeByte(BREAK);
+      write(stmt.keyword);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      writeByte(CLASS);
+      write(stmt.name);
+      write(stmt.superclass);
+      writeStatements(stmt.staticMethods);
+      writeStrings(stmt.staticGetters);
+      writeStatements(stmt.methods);
+      writeStrings(stmt.getters);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      writeByte(EXPRESSION);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+      writeByte(FOR_IN);
+      write(stmt.keyword);
+      write(stmt.name);
+      write(stmt.iterable);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      writeByte(FUNCTION);
+      write(stmt.name);
+      write(stmt.lambda);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      writeByte(IF);
+      write(stmt.condition);
+      write(stmt.thenBranch);
+      write(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      writeByte(PRINT);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      writeByte(RETURN);
+      write(stmt.keyword);
+      write(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      writeByte(VAR);
+      write(stmt.name);
+      write(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      writeByte(WHILE);
+      write(stmt.keyword);
+      write(stmt.condition);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      writeByte(ASSIGN);
+      write(expr.name);
+      write(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      writeByte(BINARY);
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      writeByte(CALL);
+      write(expr.callee);
+      write(expr.paren);
+      writeInt(expr.arguments.size());
+      for (Expr argument : expr.arguments) write(argument);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      writeByte(GET);
+      write(expr.object);
+      write(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      writeByte(GROUPING);
+      write(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+      writeByte(INDEX);
+      write(expr.object);
+      write(expr.bracket);
+      write(expr.index);
+      return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+      writeByte(LAMBDA);
+      writeInt(expr.params.size());
+      for (Token param : expr.params) write(param);
+      writeStatements(expr.body);
+      return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+      writeByte(LIST_LITERAL);
+      write(expr.bracket);
+      writeInt(expr.elements.size());
+      for (Expr element : expr.elements) write(element);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      writeByte(LITERAL);
+      Object value = expr.value;
+      if (value == null) {
+        writeByte(NIL);
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean)value ? TRUE : FALSE);
+      } else if (value instanceof Double) {
+        writeByte(NUMBER);
+        writeDouble((Double)value);
+      } else if (value instanceof Long) {
+        writeByte(INTEGER);
+        writeLong((Long)value);
+      } else {
+        writeByte(STRING);
+        writeString((String)value);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      writeByte(LOGICAL);
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      writeByte(SET);
+      write(expr.object);
+      write(expr.name);
+      write(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+      writeByte(SET_INDEX);
+      write(expr.object);
+      write(expr.bracket);
+      write(expr.index);
+      write(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      writeByte(SUPER);
+      write(expr.keyword);
+      write(expr.method);
+      return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+      writeByte(TERNARY);
+      write(expr.left);
+      write(expr.middle);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      writeByte(THIS);
+      write(expr.keyword);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      writeByte(UNARY);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      writeByte(VARIABLE);
+      write(expr.name);
+      return null;
+    }
+  }
+
+  // Decodes the statements straight from the mapped file.
+  static class Reader {
+    private final ByteBuffer buffer;
+    private final String[] constants;
+
+    private Reader(ByteBuffer buffer, String[] constants) {
+      this.buffer = buffer;
+      this.constants = constants;
+    }
+
+    // Returns the top-level statements, or null if there is no usable
+    // cache file at the path.
+    static List<Stmt> read(Path path) {
+      ByteBuffer buffer;
+      try (FileChannel channel = FileChannel.open(path)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                             channel.size());
+      } catch (IOException error) {
+        return null;
+      }
+
+      try {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+          return null;
+        }
+        int size = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (size != buffer.remaining()) return null;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int)crc.getValue() != checksum) return null;
+
+        String[] constants = new String[buffer.getInt()];
+        for (int i = 0; i < constants.length; i++) {
+          byte[] utf8 = new byte[buffer.getInt()];
+          buffer.get(utf8);
+          constants[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        int count = buffer.getInt();
+        if (buffer.getInt() != buffer.remaining()) return null;
+        Reader reader = new Reader(buffer, constants);
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          statements.add(reader.readStmt());
+        }
+        if (buffer.hasRemaining()) return null;
+        return statements;
+      } catch (RuntimeException error) {
+        // Damaged in a way the checksum didn't catch.
+        return null;
+      }
+    }
+
+    private Stmt readStmt() {
+      Stmt stmt;
+      switch (buffer.get()) {
+        case 0: return null;
+        case BLOCK: stmt = new Stmt.Block(readStatements()); break;
+        case BREAK: stmt = new Stmt.Break(readToken()); break;
+        case CLASS:
+          stmt = new Stmt.Class(readToken(), (Expr.Variable)readExpr(),
+                                readFunctions(), readStrings(),
+                                readFunctions(), readStrings());
+          break;
+        case EXPRESSION: stmt = new Stmt.Expression(readExpr()); break;
+        case FUNCTION:
+          stmt = new Stmt.Function(readToken(), (Expr.Lambda)readExpr());
+          break;
+        case IF:
+          stmt = new Stmt.If(readExpr(), readStmt(), readStmt());
+          break;
+        case PRINT: stmt = new Stmt.Print(readExpr()); break;
+        case RETURN: stmt = new Stmt.Return(readToken(), readExpr()); break;
+        case VAR: stmt = new Stmt.Var(readToken(), readExpr()); break;
+        case WHILE:
+          stmt = new Stmt.While(readToken(), readExpr(), readStmt());
+          break;
+        case FOR_IN:
+          stmt = new Stmt.ForIn(readToken(), readToken(), readExpr(),
+                                readStmt());
+          break;
+        default: throw new IllegalStateException("Corrupt cache file.");
+      }
+      stmt.slot = buffer.getInt();
+      return stmt;
+    }
+
+    private Expr readExpr() {
+      Expr expr;
+      switch (buffer.get()) {
+        case 0: return null;
+        case ASSIGN: expr = new Expr.Assign(readToken(), readExpr()); break;
+        case BINARY:
+          expr = new Expr.Binary(readExpr(), readToken(), readExpr());
+          break;
+        case CALL: {
+          Expr callee = readExpr();
+          Token paren = readToken();
+          int count = buffer.getInt();
+          List<Expr> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) arguments.add(readExpr());
+          expr = new Expr.Call(callee, paren, arguments);
+          break;
+        }
+        case GET: expr = new Expr.Get(readExpr(), readToken()); break;
+        case GROUPING: expr = new Expr.Grouping(readExpr()); break;
+        case LAMBDA: {
+          int count = buffer.getInt();
+          List<Token> params = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) params.add(readToken());
+          expr = new Expr.Lambda(params, readStatements());
+          break;
+        }
+        case LITERAL: expr = new Expr.Literal(readValue()); break;
+        case LOGICAL:
+          expr = new Expr.Logical(readExpr(), readToken(), readExpr());
+          break;
+        case SET:
+          expr = new Expr.Set(readExpr(), readToken(), readExpr());
+          break;
+        case SUPER: expr = new Expr.Super(readToken(), readToken()); break;
+        case TERNARY:
+          expr = new Expr.Ternary(readExpr(), readExpr(), readExpr());
+          break;
+        case THIS: expr = new Expr.This(readToken()); break;
+        case UNARY: expr = new Expr.Unary(readToken(), readExpr()); break;
+        case VARIABLE: expr = new Expr.Variable(readToken()); break;
+        case INDEX:
+          expr = new Expr.Index(readExpr(), readToken(), readExpr());
+          break;
+        case LIST_LITERAL: {
+          Token bracket = readToken();
+          int count = buffer.getInt();
+          List<Expr> elements = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) elements.add(readExpr());
+          expr = new Expr.ListLiteral(bracket, elements);
+          break;
+        }
+        case SET_INDEX:
+          expr = new Expr.SetIndex(readExpr(), readToken(), readExpr(),
+                                   readExpr());
+          break;
+        default: throw new IllegalStateException("Corrupt cache file.");
+      }
+      expr.depth = buffer.getInt();
+      expr.slot = buffer.getInt();
+      return expr;
+    }
+
+    private Object readValue() {
+      switch (buffer.get()) {
+        case NIL: return null;
+        case TRUE: return true;
+        case FALSE: return false;
+        case NUMBER: return buffer.getDouble();
+        case INTEGER: return buffer.getLong();
+        case STRING: return constants[buffer.getInt()];
+        default: throw new IllegalStateException("Corrupt cache file.");
+      }
+    }
+
+    private List<Stmt> readStatements() {
+      int count = buffer.getInt();
+      List<Stmt> statements = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) statements.add(readStmt());
+      return statements;
+    }
+
+    private List<Stmt.Function> readFunctions() {
+      int count = buffer.getInt();
+      List<Stmt.Function> functions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        functions.add((Stmt.Function)readStmt());
+      }
+      return functions;
+    }
+
+    private Set<String> readStrings() {
+      int count = buffer.getInt();
+      Set<String> strings = new HashSet<>();
+      for (int i = 0; i < count; i++) {
+        strings.add(constants[buffer.getInt()]);
+      }
+      return strings;
+    }
+
+    private Token readToken() {
+      TokenType type = types[buffer.get()];
+      String lexeme = constants[buffer.getInt()];
+      int line = buffer.getInt();
+      int start = buffer.getInt();
+      return new Token(type, lexeme, null, line, start);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Interns lexemes straight out of the UTF-8 source. A lexeme is looked up
+// by its byte range, so the scanner only decodes a string the first time
+// it sees a particular name, number or string literal.
+//
+// Every interned lexeme also gets a small integer ID, so later phases can
+// compare names without hashing them.
+class SymbolTable {
+  // IDs for 'this' and 'super', which are keywords and never interned.
+  static final int THIS = 0;
+  static final int SUPER = 1;
+  private static final int RESERVED = 2;
+
+  private static final double MAX_LOAD = 0.75;
+
+  private String[] keys = new String[64];
+  private byte[][] bytes = new byte[64][];
+  private int[] hashes = new int[64];
+  private int[] symbols = new int[64];
+  private String[] names = new String[64];
+  private int count = 0;
+
+  String intern(ByteBuffer source, int start, int end) {
+    // Interning can grow names, so it must run before names is read.
+    int symbol = symbol(source, start, end);
+    return names[symbol];
+  }
+
+  String name(int symbol) {
+    return names[symbol];
+  }
+
+  int symbol(ByteBuffer source, int start, int end) {
+    int hash = hash(source, start, end);
+    int length = end - start;
+    int mask = keys.length - 1;
+    int index = hash & mask;
+
+    for (;;) {
+      String key = keys[index];
+      if (key == null) break;
+      if (hashes[index] == hash && bytes[index].length == length &&
+          matches(bytes[index], source, start)) {
+        return symbols[index];
+      }
+
+      index = (index + 1) & mask;
+    }
+
+    byte[] raw = new byte[length];
+    source.get(start, raw);
+    String key = new String(raw, StandardCharsets.UTF_8);
+    if (count + 1 > keys.length * MAX_LOAD) {
+      grow();
+      index = find(hash);
+    }
+    int symbol = RESERVED + count;
+    if (symbol == names.length) {
+      names = Arrays.copyOf(names, symbol * 2);
+    }
+    keys[index] = key;
+    bytes[index] = raw;
+    hashes[index] = hash;
+    symbols[index] = symbol;
+    names[symbol] = key;
+    count++;
+    return symbol;
+  }
+
+  // FNV-1a, as in clox.
+  private static int hash(ByteBuffer source, int start, int end) {
+    int hash = 0x811c9dc5;
+    for (int i = start; i < end; i++) {
+      hash ^= source.get(i) & 0xff;
+      hash *= 16777619;
+    }
+    return hash;
+  }
+
+  private static boolean matches(byte[] key, ByteBuffer source, int start) {
+    for (int i = 0; i < key.length; i++) {
+      if (key[i] != source.get(start + i)) return false;
+    }
+    return true;
+  }
+
+  private int find(int hash) {
+    int mask = keys.length - 1;
+    int index = hash & mask;
+    while (keys[index] != null) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private void grow() {
+    String[] oldKeys = keys;
+    byte[][] oldBytes = bytes;
+    int[] oldHashes = hashes;
+    int[] oldSymbols = symbols;
+    keys = new String[oldKeys.length * 2];
+    bytes = new byte[oldKeys.length * 2][];
+    hashes = new int[oldKeys.length * 2];
+    symbols = new int[oldKeys.length * 2];
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == null) continue;
+      int index = find(oldHashes[i]);
+      keys[index] = oldKeys[i];
+      bytes[index] = oldBytes[i];
+      hashes[index] = oldHashes[i];
+      symbols[index] = oldSymbols[i];
+    }
+  }
+}
@@ -5,12 +5,28 @@ class Token {
   final String lexeme;
   final Object literal;
   final int line;
+  // Offset of the lexeme in the source, or -1 for synthetic tokens.
+  final int start;
+  // The lexeme's ID in the source's symbol table, or -1 if it has none.
+  final int symbol;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, -1, -1);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line,
+        int start) {
+    this(type, lexeme, literal, line, start, -1);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line,
+        int start, int symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.start = start;
+    this.symbol = symbol;
   }
 
   @Override
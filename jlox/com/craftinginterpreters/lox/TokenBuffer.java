@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// The scanned tokens of one source, stored as parallel arrays instead of
+// one object per token. A Token is only materialized when the parser needs
+// one for an AST node or an error message. Literal values live in a side
+// table that is sorted by token index, since few tokens have one.
+class TokenBuffer {
+  private static final TokenType[] types = TokenType.values();
+
+  // The lexeme of every token type that is always spelled the same way.
+  private static final String[] lexemes = new String[types.length];
+
+  static {
+    lexemes[LEFT_PAREN.ordinal()]    = "(";
+    lexemes[RIGHT_PAREN.ordinal()]   = ")";
+    lexemes[LEFT_BRACE.ordinal()]    = "{";
+    lexemes[RIGHT_BRACE.ordinal()]   = "}";
+    lexemes[LEFT_BRACKET.ordinal()]  = "[";
+    lexemes[RIGHT_BRACKET.ordinal()] = "]";
+    lexemes[COMMA.ordinal()]         = ",";
+    lexemes[DOT.ordinal()]           = ".";
+    lexemes[MINUS.ordinal()]         = "-";
+    lexemes[PLUS.ordinal()]          = "+";
+    lexemes[SEMICOLON.ordinal()]     = ";";
+    lexemes[SLASH.ordinal()]         = "/";
+    lexemes[STAR.ordinal()]          = "*";
+    lexemes[QUESTION_MARK.ordinal()] = "?";
+    lexemes[COLON.ordinal()]         = ":";
+    lexemes[BANG.ordinal()]          = "!";
+    lexemes[BANG_EQUAL.ordinal()]    = "!=";
+    lexemes[EQUAL.ordinal()]         = "=";
+    lexemes[EQUAL_EQUAL.ordinal()]   = "==";
+    lexemes[GREATER.ordinal()]       = ">";
+    lexemes[GREATER_EQUAL.ordinal()] = ">=";
+    lexemes[LESS.ordinal()]          = "<";
+    lexemes[LESS_EQUAL.ordinal()]    = "<=";
+    lexemes[AND.ordinal()]           = "and";
+    lexemes[BREAK.ordinal()]         = "break";
+    lexemes[CLASS.ordinal()]         = "class";
+    lexemes[ELSE.ordinal()]          = "else";
+    lexemes[FALSE.ordinal()]         = "false";
+    lexemes[FOR.ordinal()]           = "for";
+    lexemes[FUN.ordinal()]           = "fun";
+    lexemes[IF.ordinal()]            = "if";
+    lexemes[NIL.ordinal()]           = "nil";
+    lexemes[OR.ordinal()]            = "or";
+    lexemes[PRINT.ordinal()]         = "print";
+    lexemes[RETURN.ordinal()]        = "return";
+    lexemes[SUPER.ordinal()]         = "super";
+    lexemes[THIS.ordinal()]          = "this";
+    lexemes[TRUE.ordinal()]          = "true";
+    lexemes[VAR.ordinal()]           = "var";
+    lexemes[WHILE.ordinal()]         = "while";
+    lexemes[EOF.ordinal()]           = "";
+  }
+
+  private final ByteBuffer source;
+  private final SymbolTable symbols = new SymbolTable();
+
+  private byte[] type = new byte[256];
+  private int[] start = new int[256];
+  private int[] length = new int[256];
+  private int[] line = new int[256];
+  private int count = 0;
+
+  private int[] literalIndex = new int[16];
+  private Object[] literalValue = new Object[16];
+  private int literalCount = 0;
+
+  TokenBuffer(ByteBuffer source) {
+    this.source = source;
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    if (count == this.type.length) {
+      int capacity = count * 2;
+      this.type = Arrays.copyOf(this.type, capacity);
+      this.start = Arrays.copyOf(this.start, capacity);
+      this.length = Arrays.copyOf(this.length, capacity);
+      this.line = Arrays.copyOf(this.line, capacity);
+    }
+
+    this.type[count] = (byte)type.ordinal();
+    this.start[count] = start;
+    this.length[count] = length;
+    this.line[count] = line;
+    count++;
+  }
+
+  void add(TokenType type, int start, int length, int line,
+           Object literal) {
+    if (literalCount == literalIndex.length) {
+      literalIndex = Arrays.copyOf(literalIndex, literalCount * 2);
+      literalValue = Arrays.copyOf(literalValue, literalCount * 2);
+    }
+
+    literalIndex[literalCount] = count;
+    literalValue[literalCount] = literal;
+    literalCount++;
+    add(type, start, length, line);
+  }
+
+  int size() {
+    return count;
+  }
+
+  TokenType type(int index) {
+    return types[type[index]];
+  }
+
+  int ordinal(int index) {
+    return type[index];
+  }
+
+  int start(int index) {
+    return start[index];
+  }
+
+  int end(int index) {
+    return start[index] + length[index];
+  }
+
+  int line(int index) {
+    return line[index];
+  }
+
+  Object literal(int index) {
+    int found = Arrays.binarySearch(literalIndex, 0, literalCount, index);
+    return found < 0 ? null : literalValue[found];
+  }
+
+  String intern(int start, int end) {
+    return symbols.intern(source, start, end);
+  }
+
+  String lexeme(int index) {
+    String lexeme = lexemes[type[index]];
+    if (lexeme != null) return lexeme;
+
+    return symbols.intern(source, start[index],
+                          start[index] + length[index]);
+  }
+
+  Token get(int index) {
+    String lexeme = lexemes[type[index]];
+    int symbol;
+    if (lexeme != null) {
+      switch (type(index)) {
+        case THIS: symbol = SymbolTable.THIS; break;
+        case SUPER: symbol = SymbolTable.SUPER; break;
+        default: symbol = -1; break;
+      }
+    } else {
+      symbol = symbols.symbol(source, start[index],
+                              start[index] + length[index]);
+      lexeme = symbols.name(symbol);
+    }
+
+    return new Token(type(index), lexeme, literal(index), line[index],
+                     start[index], symbol);
+  }
+}
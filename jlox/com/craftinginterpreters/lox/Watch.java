@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+// Runs a script, then hot reloads it each time its file changes, until
+// interrupted. The change is applied to a Document as one edit, and only
+// the top-level declarations it compiled again are run again, in the same
+// interpreter. Edited functions and classes are redefined and edited
+// statements run again, while the rest of the program keeps its state.
+//
+// Nothing runs while the script has errors. The declarations compiled in
+// the meantime run once it is clean again.
+class Watch {
+  // Milliseconds between checks of the file's modification time.
+  private static final long INTERVAL = 200;
+
+  static void run(Path path, Interpreter interpreter, PrintStream err)
+      throws IOException {
+    byte[] source = read(path);
+    FileTime modified = Files.getLastModifiedTime(path);
+    Document document =
+        new Document(new String(source, StandardCharsets.UTF_8));
+    run(document, interpreter, err);
+
+    for (;;) {
+      try {
+        Thread.sleep(INTERVAL);
+      } catch (InterruptedException error) {
+        return;
+      }
+
+      byte[] changed;
+      try {
+        FileTime time = Files.getLastModifiedTime(path);
+        if (time.equals(modified)) continue;
+        changed = read(path);
+        modified = time;
+        if (Arrays.equals(changed, source)) continue;
+      } catch (IOException error) {
+        // Editors may save by replacing the file, so it can be missing
+        // for a moment.
+        continue;
+      }
+
+      // The edit is what lies between the longest common prefix and
+      // suffix, widened to whole UTF-8 characters.
+      int limit = Math.min(source.length, changed.length);
+      int prefix = 0;
+      while (prefix < limit && source[prefix] == changed[prefix]) prefix++;
+      while (prefix > 0 && (isContinuation(source, prefix) ||
+                            isContinuation(changed, prefix))) {
+        prefix--;
+      }
+      int suffix = 0;
+      while (suffix < limit - prefix &&
+             source[source.length - 1 - suffix] ==
+                 changed[changed.length - 1 - suffix]) {
+        suffix++;
+      }
+      while (suffix > 0 &&
+             (isContinuation(source, source.length - suffix) ||
+              isContinuation(changed, changed.length - suffix))) {
+        suffix--;
+      }
+
+      document.edit(prefix, source.length - prefix - suffix,
+                    new String(changed, prefix,
+                               changed.length - prefix - suffix,
+                               StandardCharsets.UTF_8));
+      source = changed;
+      run(document, interpreter, err);
+    }
+  }
+
+  private static void run(Document document, Interpreter interpreter,
+                          PrintStream err) {
+    if (document.errors().isEmpty()) {
+      interpreter.interpret(document.changes());
+      interpreter.getOutput().flush();
+    } else {
+      interpreter.getOutput().flush();
+      for (String error : document.errors()) err.println(error);
+    }
+  }
+
+  // The file as UTF-8, with malformed bytes replaced, so that offsets
+  // into it are offsets into the document.
+  private static byte[] read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static boolean isContinuation(byte[] bytes, int index) {
+    return index < bytes.length && (bytes[index] & 0xc0) == 0x80;
+  }
+}
@@ -18,10 +18,13 @@ public class GenerateAst {
       "Call     : Expr callee, Token paren, List<Expr> arguments",
       "Get      : Expr object, Token name",
       "Grouping : Expr expression",
+      "Index    : Expr object, Token bracket, Expr index",
       "Lambda   : List<Token> params, List<Stmt> body",
+      "ListLiteral : Token bracket, List<Expr> elements",
       "Literal  : Object value",
       "Logical  : Expr left, Token operator, Expr right",
       "Set      : Expr object, Token name, Expr value",
+      "SetIndex : Expr object, Token bracket, Expr index, Expr value",
       "Super    : Token keyword, Token method",
       "Ternary  : Expr left, Expr middle, Expr right",
       "This     : Token keyword",
@@ -34,12 +37,13 @@ public class GenerateAst {
       "Break      : Token keyword",
       "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> staticMethods, Set<String> staticGetters, List<Stmt.Function> methods, Set<String> getters",
       "Expression : Expr expression",
+      "ForIn      : Token keyword, Token name, Expr iterable, Stmt body",
       "Function   : Token name, Expr.Lambda lambda",
       "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
       "Print      : Expr expression",
       "Return     : Token keyword, Expr value",
       "Var        : Token name, Expr initializer",
-      "While      : Expr condition, Stmt body"
+      "While      : Token keyword, Expr condition, Stmt body"
     ));
   }
 
@@ -55,6 +59,13 @@ public class GenerateAst {
     writer.println();
     writer.println("abstract class " + baseName + " {");
 
+    // Where the Resolver found the variable this node reads, writes or
+    // declares: how many scopes out, and which slot in that scope. A depth
+    // of -1 means a global.
+    writer.println("  int depth = -1;");
+    writer.println("  int slot = -1;");
+    writer.println();
+
     defineVisitor(writer, baseName, types);
 
     // The AST classes.